@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.Random;
+
+import at.molindo.dbcopy.Column;
+
+/**
+ * compares the generic path (rows, {@link NaturalRowComparator} and
+ * {@link Equals} on Object[]) with the batched path ({@link RowBatch}es) of
+ * comparing rows of a table with 40 columns.
+ * Reading rows isn't included. Run with the benchmark profile.
+ */
+public class RowBatchBenchmark {
+
+	private static final int COLUMNS = 40;
+	private static final int ROWS = 100000;
+	private static final int BATCH_SIZE = 256;
+
+	public static void main(String[] args) throws Exception {
+		Column[] columns = new Column[COLUMNS];
+		for (int i = 0; i < COLUMNS; i++) {
+			Class<?> type = i == 1 || i % 4 == 3 ? String.class : i % 4 == 0 ? Long.class : i % 4 == 1 ? Integer.class
+					: Double.class;
+			columns[i] = new Column("c" + i, type);
+		}
+
+		Random rnd = new Random(42);
+		Object[][] rows = new Object[ROWS][];
+		for (int r = 0; r < ROWS; r++) {
+			Object[] row = new Object[COLUMNS];
+			for (int i = 0; i < COLUMNS; i++) {
+				Class<?> type = columns[i].getJavaType();
+				if (i == 0) {
+					row[i] = (long) r;
+				} else if (type == String.class) {
+					row[i] = "value " + rnd.nextInt(1000);
+				} else if (type == Long.class) {
+					row[i] = rnd.nextLong();
+				} else if (type == Integer.class) {
+					row[i] = rnd.nextInt();
+				} else {
+					row[i] = rnd.nextDouble();
+				}
+			}
+			rows[r] = row;
+		}
+
+		RowBatch[] source = batches(columns, rows);
+		RowBatch[] target = batches(columns, rows);
+		Object[][] sourceRows = rows(source);
+		Object[][] targetRows = rows(target);
+
+		NaturalRowComparator comp = new NaturalRowComparator(new int[] { 0, 1 });
+		Equals e = new Equals(columns, columns);
+
+		for (int round = 0; round < 15; round++) {
+			long start = System.nanoTime();
+			int generic = generic(sourceRows, targetRows, comp, e);
+			long genericNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int batched = batched(source, target, comp, e);
+			long batchedNanos = System.nanoTime() - start;
+
+			if (generic != batched) {
+				throw new IllegalStateException("different results: " + generic + " and " + batched);
+			}
+			System.out.printf("round %2d: generic %6.1f ns/row, batched %6.1f ns/row%n", round,
+					(double) genericNanos / ROWS, (double) batchedNanos / ROWS);
+		}
+	}
+
+	private static int generic(Object[][] source, Object[][] target, NaturalRowComparator comp, Equals e) {
+		int equal = 0;
+		for (int r = 0; r < source.length; r++) {
+			if (r > 0 && comp.compare(source[r - 1], source[r]) >= 0) {
+				throw new IllegalStateException("unexpected order");
+			}
+			if (comp.compare(target[r], source[r]) == 0 && e.equals(target[r], source[r])) {
+				equal++;
+			}
+		}
+		return equal;
+	}
+
+	private static int batched(RowBatch[] source, RowBatch[] target, NaturalRowComparator comp, Equals e) {
+		RowBatch prevBatch = null;
+		int prevRow = 0;
+		int equal = 0;
+		for (int b = 0; b < source.length; b++) {
+			for (int r = 0; r < source[b].size(); r++) {
+				if (prevBatch != null && comp.compare(prevBatch, prevRow, source[b], r) >= 0) {
+					throw new IllegalStateException("unexpected order");
+				}
+				prevBatch = source[b];
+				prevRow = r;
+				if (comp.compare(target[b], r, source[b], r) == 0 && e.equals(target[b], r, source[b], r)) {
+					equal++;
+				}
+			}
+		}
+		return equal;
+	}
+
+	private static RowBatch[] batches(Column[] columns, Object[][] rows) throws Exception {
+		RowBatch[] batches = new RowBatch[(rows.length + BATCH_SIZE - 1) / BATCH_SIZE];
+		for (int b = 0; b < batches.length; b++) {
+			batches[b] = new RowBatch(columns, Math.min(BATCH_SIZE, rows.length - b * BATCH_SIZE));
+			while (!batches[b].isFull()) {
+				batches[b].add(row(rows[b * BATCH_SIZE + batches[b].size()]));
+			}
+		}
+		return batches;
+	}
+
+	private static Object[][] rows(RowBatch[] batches) {
+		Object[][] rows = new Object[ROWS][];
+		int i = 0;
+		for (RowBatch batch : batches) {
+			for (int r = 0; r < batch.size(); r++) {
+				rows[i++] = batch.getRow(r);
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * @return a {@link ResultSet} positioned on a row with given values
+	 */
+	private static ResultSet row(final Object[] values) {
+		return (ResultSet) Proxy.newProxyInstance(RowBatchBenchmark.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("wasNull".equals(method.getName())) {
+							return false;
+						}
+						Object value = values[(Integer) args[0] - 1];
+						if ("getLong".equals(method.getName())) {
+							return ((Number) value).longValue();
+						} else if ("getDouble".equals(method.getName())) {
+							return ((Number) value).doubleValue();
+						} else {
+							return value;
+						}
+					}
+				});
+	}
+}
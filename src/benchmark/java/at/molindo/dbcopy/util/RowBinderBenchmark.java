@@ -0,0 +1,107 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import at.molindo.dbcopy.Column;
+
+/**
+ * compares binding rows of 40 columns with
+ * {@link PreparedStatement#setObject(int, Object)} and with a
+ * {@link RowBinder}. Statements are prepared on a MySQL connection but never
+ * executed. Run with the benchmark profile and arguments
+ * <code>jdbc-url user password</code>.
+ */
+public class RowBinderBenchmark {
+
+	private static final int COLUMNS = 40;
+	private static final int ROWS = 100000;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3) {
+			System.err.println("usage: " + RowBinderBenchmark.class.getName() + " <jdbc-url> <user> <password>");
+			System.exit(1);
+		}
+
+		String[] dataTypes = { "bigint", "int", "double", "varchar" };
+		List<Column> columns = new ArrayList<Column>(COLUMNS);
+		StringBuilder query = new StringBuilder("SELECT ?");
+		for (int i = 0; i < COLUMNS; i++) {
+			columns.add(new Column("c" + i, null, dataTypes[i % 4], null));
+			if (i > 0) {
+				query.append(", ?");
+			}
+		}
+
+		Random rnd = new Random(42);
+		Object[][] rows = new Object[ROWS][];
+		for (int r = 0; r < ROWS; r++) {
+			Object[] row = new Object[COLUMNS];
+			for (int i = 0; i < COLUMNS; i++) {
+				switch (i % 4) {
+				case 0:
+					row[i] = rnd.nextLong();
+					break;
+				case 1:
+					row[i] = rnd.nextInt();
+					break;
+				case 2:
+					row[i] = rnd.nextDouble();
+					break;
+				default:
+					row[i] = "value " + rnd.nextInt(1000);
+				}
+			}
+			rows[r] = row;
+		}
+
+		RowBinder binder = new RowBinder(columns);
+
+		Connection c = DriverManager.getConnection(args[0], args[1], args[2]);
+		try {
+			PreparedStatement ps = c.prepareStatement(query.toString());
+			for (int round = 0; round < 15; round++) {
+				long start = System.nanoTime();
+				for (Object[] row : rows) {
+					for (int i = 0; i < row.length; i++) {
+						ps.setObject(i + 1, row[i]);
+					}
+					ps.clearParameters();
+				}
+				long objectNanos = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (Object[] row : rows) {
+					binder.bind(ps, row, 0);
+					ps.clearParameters();
+				}
+				long binderNanos = System.nanoTime() - start;
+
+				System.out.printf("round %2d: setObject %6.1f ns/row, RowBinder %6.1f ns/row%n", round,
+						(double) objectNanos / ROWS, (double) binderNanos / ROWS);
+			}
+			ps.close();
+		} finally {
+			c.close();
+		}
+	}
+}
@@ -15,9 +15,12 @@
  */
 package at.molindo.dbcopy;
 
+import java.util.Set;
+
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
+import at.molindo.utils.collections.CollectionUtils;
 import at.molindo.utils.data.StringUtils;
 
 /**
@@ -26,9 +29,15 @@ import at.molindo.utils.data.StringUtils;
  */
 public class Column {
 
+	private static final Set<String> INTEGRAL_DATA_TYPES = CollectionUtils.unmodifiableSet("tinyint", "smallint",
+			"mediumint", "int", "integer", "bigint");
+
 	private final String _name;
 	private final String _collation;
+	private final String _dataType;
+	private final boolean _unsigned;
 	private final Class<?> _javaType;
+	private final String _encoding;
 
 	public Column(String name) {
 		this(name, null, null);
@@ -43,12 +52,40 @@ public class Column {
 	}
 
 	public Column(String name, String collation, Class<?> javaType) {
+		this(name, collation, null, javaType);
+	}
+
+	/**
+	 * @param dataType
+	 *            MySQL data type as in information_schema.COLUMNS.DATA_TYPE
+	 */
+	public Column(String name, String collation, String dataType, Class<?> javaType) {
+		this(name, collation, dataType, javaType, null);
+	}
+
+	/**
+	 * @param encoding
+	 *            Java encoding of string values read as raw bytes
+	 */
+	public Column(String name, String collation, String dataType, Class<?> javaType, String encoding) {
+		this(name, collation, dataType, false, javaType, encoding);
+	}
+
+	/**
+	 * @param unsigned
+	 *            true for unsigned numeric columns
+	 */
+	public Column(String name, String collation, String dataType, boolean unsigned, Class<?> javaType,
+			String encoding) {
 		if (StringUtils.empty(name)) {
 			throw new IllegalArgumentException("column name must not be empty");
 		}
 		_name = name;
 		_collation = collation;
+		_dataType = dataType == null ? null : dataType.toLowerCase();
+		_unsigned = unsigned;
 		_javaType = javaType;
+		_encoding = encoding;
 	}
 
 	@Nonnull
@@ -61,14 +98,43 @@ public class Column {
 		return _collation;
 	}
 
+	@CheckForNull
+	public String getDataType() {
+		return _dataType;
+	}
+
+	/**
+	 * @return true if {@link #getDataType()} is an integer type
+	 */
+	public boolean isIntegral() {
+		return _dataType != null && INTEGRAL_DATA_TYPES.contains(_dataType);
+	}
+
+	/**
+	 * @return true for unsigned numeric columns
+	 */
+	public boolean isUnsigned() {
+		return _unsigned;
+	}
+
 	@CheckForNull
 	public Class<?> getJavaType() {
 		return _javaType;
 	}
 
+	/**
+	 * @return Java encoding of string values read as raw bytes, null if
+	 *         values aren't read as raw bytes
+	 */
+	@CheckForNull
+	public String getEncoding() {
+		return _encoding;
+	}
+
 	@Override
 	public String toString() {
 		return "Column [" + _name + (_collation != null ? ", collation=" + _collation : "")
-				+ (_javaType != null ? ", javaType=" + _javaType : "") + "]";
+				+ (_dataType != null ? ", dataType=" + _dataType : "") + (_unsigned ? ", unsigned" : "") + (_javaType != null ? ", javaType=" + _javaType : "")
+				+ (_encoding != null ? ", encoding=" + _encoding : "") + "]";
 	}
 }
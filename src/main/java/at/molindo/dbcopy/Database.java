@@ -24,18 +24,23 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.CheckForNull;
+
 import org.apache.commons.dbutils.handlers.MapListHandler;
 
 import at.molindo.dbcopy.handler.ColumnHandler;
 import at.molindo.dbcopy.handler.SimpleKeyedHandler;
+import at.molindo.dbcopy.source.BinlogPosition;
 import at.molindo.dbcopy.source.DataSource;
 import at.molindo.dbcopy.source.DataSourceRole;
 import at.molindo.dbcopy.source.DefaultConnectionPool;
 import at.molindo.dbcopy.source.SynchronizedReadOnlyConnectionPool;
 import at.molindo.dbcopy.task.AbstractConnectionRunnable;
+import at.molindo.dbcopy.task.ConnectionCallable;
 import at.molindo.dbcopy.task.ConnectionExecutorService;
 import at.molindo.dbcopy.util.SqlFunction;
 import at.molindo.dbcopy.util.Utils;
@@ -54,6 +59,7 @@ public class Database {
 	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Database.class);
 
 	private final int _poolSize;
+	private final int _fetchPoolSize;
 
 	private final DefaultConnectionPool _dataSource;
 	private final Map<String, Table> _tables;
@@ -62,12 +68,27 @@ public class Database {
 	private DataSourceState _state;
 
 	public Database(DataSourceRole mode, String jdbcUrl, String user, String password, int poolSize) {
+		this(mode, jdbcUrl, user, password, poolSize, 0);
+	}
+
+	/**
+	 * @param fetchPoolSize
+	 *            number of additional connections only used by
+	 *            {@link #submitFetch(SqlFunction)}, e.g. to fetch rows while
+	 *            all other connections are busy streaming rows
+	 */
+	public Database(DataSourceRole mode, String jdbcUrl, String user, String password, int poolSize,
+			int fetchPoolSize) {
 		if (poolSize < 1) {
 			throw new IllegalArgumentException("poolSize must be >= 1, was " + poolSize);
 		}
+		if (fetchPoolSize < 0) {
+			throw new IllegalArgumentException("fetchPoolSize must be >= 0, was " + fetchPoolSize);
+		}
 		_poolSize = poolSize;
+		_fetchPoolSize = fetchPoolSize;
 
-		_dataSource = mode.newConnectionPool(jdbcUrl, user, password, poolSize);
+		_dataSource = mode.newConnectionPool(jdbcUrl, user, password, poolSize + fetchPoolSize);
 
 		// read table metadata
 		_tables = readTables(_dataSource);
@@ -87,11 +108,20 @@ public class Database {
 	}
 
 	public void start() {
+		start(false);
+	}
+
+	/**
+	 * @param binlogPosition
+	 *            true to read the binlog position of the snapshot
+	 * @see #getBinlogPosition()
+	 */
+	public void start(boolean binlogPosition) {
 		if (_state instanceof Initializing) {
 			if (_dataSource instanceof SynchronizedReadOnlyConnectionPool) {
 				// sync on all tables
-				((SynchronizedReadOnlyConnectionPool) _dataSource).syncRead(_tables.keySet().toArray(
-						new String[_tables.size()]));
+				((SynchronizedReadOnlyConnectionPool) _dataSource).syncRead(binlogPosition, _tables.keySet()
+						.toArray(new String[_tables.size()]));
 			}
 			_state = new Executing();
 		} else {
@@ -125,7 +155,7 @@ public class Database {
 				Table.Builder table = Table.builder(tableName);
 
 				// columns
-				String columnsQuery = "select COLUMN_NAME,COLLATION_NAME from information_schema.COLUMNS where TABLE_SCHEMA=? and TABLE_NAME=? order by ORDINAL_POSITION";
+				String columnsQuery = "select COLUMN_NAME,COLLATION_NAME,DATA_TYPE,COLUMN_TYPE from information_schema.COLUMNS where TABLE_SCHEMA=? and TABLE_NAME=? order by ORDINAL_POSITION";
 				Map<String, Column> columns = Utils.executePrepared(connection, columnsQuery, new ColumnHandler(),
 						catalog, tableName);
 				if (columns.isEmpty()) {
@@ -185,6 +215,18 @@ public class Database {
 		return _state.submit(runnable);
 	}
 
+	public <T> Future<T> submit(SqlFunction<T> function) {
+		return _state.submit(new ConnectionCallable<T>(function));
+	}
+
+	/**
+	 * submit a short query to the fetch connections, falls back to
+	 * {@link #submit(SqlFunction)} without fetch connections
+	 */
+	public <T> Future<T> submitFetch(SqlFunction<T> function) {
+		return _state.submitFetch(new ConnectionCallable<T>(function));
+	}
+
 	public void close() {
 		if (_state instanceof Executing) {
 			try {
@@ -198,6 +240,19 @@ public class Database {
 		}
 	}
 
+	/**
+	 * @return binlog position of the snapshot taken by
+	 *         {@link #start(boolean)}, null if not available or not requested
+	 * @see SynchronizedReadOnlyConnectionPool#getBinlogPosition()
+	 */
+	@CheckForNull
+	public BinlogPosition getBinlogPosition() {
+		if (_dataSource instanceof SynchronizedReadOnlyConnectionPool) {
+			return ((SynchronizedReadOnlyConnectionPool) _dataSource).getBinlogPosition();
+		}
+		return null;
+	}
+
 	public Table getTable(String name) {
 		Table t = _tables.get(name);
 		if (t == null) {
@@ -273,6 +328,10 @@ public class Database {
 
 		Future<?> submit(AbstractConnectionRunnable runnable);
 
+		<T> Future<T> submit(ConnectionCallable<T> callable);
+
+		<T> Future<T> submitFetch(ConnectionCallable<T> callable);
+
 		void execute(AbstractConnectionRunnable runnable);
 
 	}
@@ -299,15 +358,27 @@ public class Database {
 			throw new IllegalStateException("not started");
 		}
 
+		@Override
+		public <T> Future<T> submit(ConnectionCallable<T> callable) {
+			throw new IllegalStateException("not started");
+		}
+
+		@Override
+		public <T> Future<T> submitFetch(ConnectionCallable<T> callable) {
+			throw new IllegalStateException("not started");
+		}
+
 	}
 
 	private class Executing implements DataSourceState {
 
 		private final ConnectionExecutorService _exec;
+		private final ConnectionExecutorService _fetchExec;
 
 		private Executing() {
-			// create a thread pool, drains all connections from dataSource
+			// create thread pools, drain all connections from dataSource
 			_exec = new ConnectionExecutorService(_poolSize, _dataSource);
+			_fetchExec = _fetchPoolSize > 0 ? new ConnectionExecutorService(_fetchPoolSize, _dataSource) : null;
 		}
 
 		@Override
@@ -330,8 +401,22 @@ public class Database {
 			return _exec.submit(runnable);
 		}
 
+		@Override
+		public <T> Future<T> submit(ConnectionCallable<T> callable) {
+			return _exec.submit((Callable<T>) callable);
+		}
+
+		@Override
+		public <T> Future<T> submitFetch(ConnectionCallable<T> callable) {
+			return (_fetchExec != null ? _fetchExec : _exec).submit((Callable<T>) callable);
+		}
+
 		public void close() {
 			try {
+				if (_fetchExec != null) {
+					_fetchExec.shutdown();
+					_fetchExec.awaitTermination(10, TimeUnit.MINUTES);
+				}
 				_exec.shutdown();
 				_exec.awaitTermination(10, TimeUnit.MINUTES);
 			} catch (InterruptedException e) {
@@ -356,6 +441,16 @@ public class Database {
 			throw new IllegalStateException("already closed");
 		}
 
+		@Override
+		public <T> Future<T> submit(ConnectionCallable<T> callable) {
+			throw new IllegalStateException("already closed");
+		}
+
+		@Override
+		public <T> Future<T> submitFetch(ConnectionCallable<T> callable) {
+			throw new IllegalStateException("already closed");
+		}
+
 		@Override
 		public void execute(AbstractConnectionRunnable runnable) {
 			throw new IllegalStateException("already closed");
@@ -48,6 +48,12 @@ public interface Insertable extends Selectable {
 	 */
 	String getBulkInsertQuery();
 
+	/**
+	 * @return {@link PreparedStatement} query for bulk inserts of rows
+	 * @see #insert(PreparedStatement, Object[], int)
+	 */
+	String getBulkInsertQuery(int rows);
+
 	/**
 	 * @return {@link PreparedStatement} query for updates. This query updates
 	 *         the key itself too support cases where the value is equal but not
@@ -56,6 +62,13 @@ public interface Insertable extends Selectable {
 	 */
 	String getUpdateQuery();
 
+	/**
+	 * @return {@link PreparedStatement} query for inserts that update all
+	 *         columns of existing rows instead ("INSERT ... ON DUPLICATE KEY
+	 *         UPDATE")
+	 */
+	String getUpsertQuery();
+
 	/**
 	 * @return {@link PreparedStatement} query for deletes
 	 */
@@ -82,6 +95,13 @@ public interface Insertable extends Selectable {
 	 */
 	void update(PreparedStatement update, Object[] values) throws SQLException;
 
+	/**
+	 * populate an upsert query with values
+	 * 
+	 * @see #getUpsertQuery()
+	 */
+	void upsert(PreparedStatement upsert, Object[] values) throws SQLException;
+
 	/**
 	 * populate a delete query with values
 	 * 
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy;
+
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * A range of key values of a {@link Table.UniqueKey}, from (inclusive) to
+ * (exclusive). Key values are in order of key columns, <code>null</code>
+ * bounds are unbounded. (read-only)
+ */
+public final class KeyRange {
+
+	/**
+	 * the unbounded range
+	 */
+	public static final KeyRange ALL = new KeyRange(null, null);
+
+	private final Object[] _from;
+	private final Object[] _to;
+
+	public KeyRange(@CheckForNull Object[] from, @CheckForNull Object[] to) {
+		if (from != null && from.length == 0) {
+			throw new IllegalArgumentException("from must not be empty");
+		}
+		if (to != null && to.length == 0) {
+			throw new IllegalArgumentException("to must not be empty");
+		}
+		if (from != null && to != null && from.length != to.length) {
+			throw new IllegalArgumentException("from and to must be of same length");
+		}
+		_from = from;
+		_to = to;
+	}
+
+	/**
+	 * @return inclusive lower bound or <code>null</code> if unbounded
+	 */
+	@CheckForNull
+	public Object[] getFrom() {
+		return _from;
+	}
+
+	/**
+	 * @return exclusive upper bound or <code>null</code> if unbounded
+	 */
+	@CheckForNull
+	public Object[] getTo() {
+		return _to;
+	}
+
+	public boolean isBounded() {
+		return _from != null || _to != null;
+	}
+
+	/**
+	 * split this range in two at the given key
+	 *
+	 * @return [from, key) and [key, to)
+	 */
+	public KeyRange[] split(Object[] key) {
+		if (key == null || key.length == 0) {
+			throw new IllegalArgumentException("key must not be empty");
+		}
+		return new KeyRange[] { new KeyRange(_from, key), new KeyRange(key, _to) };
+	}
+
+	@Override
+	public String toString() {
+		return "[" + (_from == null ? "" : Arrays.toString(_from)) + ", " + (_to == null ? "" : Arrays.toString(_to))
+				+ ")";
+	}
+
+}
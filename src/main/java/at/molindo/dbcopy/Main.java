@@ -16,15 +16,26 @@
 package at.molindo.dbcopy;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import at.molindo.dbcopy.source.BinlogPosition;
+import at.molindo.dbcopy.task.BinlogReplicator;
 import at.molindo.dbcopy.task.CompareTableTask;
+import at.molindo.dbcopy.task.SkipCheck;
 import at.molindo.dbcopy.util.DbcopyProperties;
 import at.molindo.dbcopy.util.DbcopyProperties.DbProperties;
 import at.molindo.dbcopy.util.DbcopyProperties.QueryTask;
@@ -120,17 +131,94 @@ public class Main {
 		return tables;
 	}
 
-	private static Database open(DbProperties props) {
+	/**
+	 * split tables into key ranges if configured. All ranges are compared by
+	 * separate tasks in a shared executor, tables with most ranges first.
+	 * Tables with a watermark column aren't split.
+	 */
+	private static List<Map.Entry<String, List<KeyRange>>> getTableRanges(Database source, Set<String> tables,
+			TableTaksProperties props) {
+
+		Map<String, Future<List<KeyRange>>> futures = new HashMap<String, Future<List<KeyRange>>>();
+		for (String table : tables) {
+			long rangeSize = props.getRangeSize(table);
+			if (rangeSize > 0 && props.getWatermarkColumn(table) == null) {
+				futures.put(table, source.submit(source.getTable(table).getPrimaryKey().ranges(rangeSize)));
+			}
+		}
+
+		Map<String, List<KeyRange>> ranges = new HashMap<String, List<KeyRange>>();
+		for (String table : tables) {
+			Future<List<KeyRange>> future = futures.get(table);
+			if (future == null) {
+				ranges.put(table, Collections.singletonList(KeyRange.ALL));
+			} else {
+				try {
+					List<KeyRange> tableRanges = future.get();
+					if (log.isDebugEnabled()) {
+						log.debug("split table " + table + " into " + tableRanges.size() + " ranges");
+					}
+					ranges.put(table, tableRanges);
+				} catch (InterruptedException e) {
+					throw new RuntimeException("splitting table " + table + " interrupted", e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("splitting table " + table + " failed", e.getCause());
+				}
+			}
+		}
+
+		List<Map.Entry<String, List<KeyRange>>> sorted = new ArrayList<Map.Entry<String, List<KeyRange>>>(
+				ranges.entrySet());
+		Collections.sort(sorted, new Comparator<Map.Entry<String, List<KeyRange>>>() {
+
+			@Override
+			public int compare(Map.Entry<String, List<KeyRange>> o1, Map.Entry<String, List<KeyRange>> o2) {
+				return o2.getValue().size() - o1.getValue().size();
+			}
+		});
+		return sorted;
+	}
+
+	private static Map<String, SkipCheck> getSkipChecks(Set<String> tables, TableTaksProperties props) {
+		Map<String, SkipCheck> checks = new HashMap<String, SkipCheck>();
+		for (String table : tables) {
+			SkipCheck check = props.getSkipCheck(table);
+			if (check != SkipCheck.NONE) {
+				checks.put(table, check);
+			}
+		}
+		return checks;
+	}
+
+	/**
+	 * @return true if all futures completed without exception
+	 */
+	private static boolean isSuccessful(List<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				return false;
+			} catch (ExecutionException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Database open(DbProperties props, int fetchPoolSize) {
 		return new Database(props.getRole(), props.getJdbcUrl(), props.getUser(), props.getPassword(),
-				props.getPoolSize());
+				props.getPoolSize(), fetchPoolSize);
 	}
 
 	public static void main(String[] args) {
 
 		DbcopyProperties props = DbcopyProperties.load(args.length > 0 ? args[0] : null);
 
-		Database source = open(props.getSource());
-		Database target = open(props.getTarget());
+		// fetch connections of source are part of the snapshot, at least one
+		// is required to fetch rows while all others stream rows
+		Database source = open(props.getSource(), Math.max(1, props.getSource().getFetchPoolSize()));
+		Database target = open(props.getTarget(), 0);
 
 		// make sure variables are equal
 		Map<String, Object> variables = source.getVariables("character_set_client", "character_set_connection",
@@ -144,18 +232,41 @@ public class Main {
 
 		target.setVariables(variables);
 
-		source.start();
+		Set<String> tables = getTableNames(source, target, props.getTableTasks());
+
+		// fingerprints must be read before snapshot
+		TableFingerprints fingerprints = new TableFingerprints(new File(props.getStateDirectory(),
+				"fingerprints.properties"), getSkipChecks(tables, props.getTableTasks()));
+		fingerprints.read(source);
+
+		// binlog position is only read for replication, requires privileges
+		source.start(props.isBinlogEnabled());
 		target.start();
 
 		ExecutorService executor = Executors.newFixedThreadPool(props.getSource().getPoolSize());
 
-		Set<String> tables = getTableNames(source, target, props.getTableTasks());
-		if (!tables.isEmpty()) {
-			log.info("creating tasks for tables: " + tables);
-			for (String table : tables) {
-				executor.execute(new CompareTableTask(table, source, target, props));
+		// checks equality of rows for all tasks
+		int parallelism = props.getCompareParallelism();
+		ForkJoinPool comparePool = parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+
+		Set<String> changed = new HashSet<String>(tables);
+		changed.removeAll(fingerprints.getUnchanged(source, target));
+
+		Map<String, List<Future<?>>> tableFutures = new HashMap<String, List<Future<?>>>();
+		if (!changed.isEmpty()) {
+			log.info("creating tasks for tables: " + changed);
+			for (Map.Entry<String, List<KeyRange>> e : getTableRanges(source, changed, props.getTableTasks())) {
+				List<Future<?>> futures = new ArrayList<Future<?>>(e.getValue().size());
+				for (KeyRange range : e.getValue()) {
+					futures.add(executor.submit(new CompareTableTask(e.getKey(), range, source, target, props)
+							.setComparePool(comparePool)));
+				}
+				tableFutures.put(e.getKey(), futures);
 			}
 		}
+		if (changed.size() < tables.size()) {
+			log.info("skipped " + (tables.size() - changed.size()) + " unchanged tables");
+		}
 
 		Map<String, QueryTask> tasks = props.getQueryTasks().getTasks();
 		if (!tasks.isEmpty()) {
@@ -166,7 +277,8 @@ public class Main {
 				Table table = target.getTable(task.getTable());
 				Insertable insertable = table.getIndex(task.getIndex());
 
-				executor.execute(new CompareTableTask(query, insertable, source, target, props));
+				executor.execute(new CompareTableTask(query, insertable, source, target, props)
+						.setComparePool(comparePool));
 			}
 		}
 
@@ -176,11 +288,54 @@ public class Main {
 		} catch (InterruptedException e) {
 			log.info("waiting for terminatino of executor interrupted");
 		}
+		if (comparePool != null) {
+			comparePool.shutdown();
+		}
 
-		log.info("finished tasks, shutting down");
+		log.info("finished tasks");
 
-		target.close();
+		if (!props.isDryRun()) {
+			Set<String> successful = new HashSet<String>();
+			for (Map.Entry<String, List<Future<?>>> e : tableFutures.entrySet()) {
+				if (isSuccessful(e.getValue())) {
+					successful.add(e.getKey());
+				} else {
+					log.warn("comparing table " + e.getKey() + " failed");
+				}
+			}
+			fingerprints.store(successful);
+		}
+
+		BinlogPosition position = source.getBinlogPosition();
+
+		// release snapshot
 		source.close();
+
+		if (props.isBinlogEnabled()) {
+			if (position == null) {
+				log.error("binlog position of source not available, can't replicate changes");
+			} else if (!tables.isEmpty()) {
+				replicate(new BinlogReplicator(position, source, tables, target, props));
+			}
+		}
+
+		log.info("shutting down");
+
+		target.close();
+	}
+
+	/**
+	 * run replicator until JVM shutdown
+	 */
+	private static void replicate(final BinlogReplicator replicator) {
+		Runtime.getRuntime().addShutdownHook(new Thread("binlog-shutdown") {
+
+			@Override
+			public void run() {
+				replicator.stop();
+			}
+		});
+		replicator.run();
 	}
 
 }
@@ -15,18 +15,30 @@
  */
 package at.molindo.dbcopy;
 
+import java.math.BigInteger;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
+import org.apache.commons.dbutils.handlers.ArrayHandler;
+import org.apache.commons.dbutils.handlers.ArrayListHandler;
+
 import at.molindo.dbcopy.util.CollationRowComparator;
+import at.molindo.dbcopy.util.LoadDataEncoder;
 import at.molindo.dbcopy.util.NaturalRowComparator;
+import at.molindo.dbcopy.util.RowBinder;
+import at.molindo.dbcopy.util.SqlFunction;
+import at.molindo.dbcopy.util.Utils;
 import at.molindo.utils.collections.ArrayUtils;
 import at.molindo.utils.collections.CollectionUtils;
 import at.molindo.utils.collections.IteratorUtils;
@@ -50,7 +62,12 @@ public class Table implements Insertable {
 	private final int _bulkSize = DEFAULT_BULK_SIZE;
 
 	private final String _insert;
-	private final String _bulkInsert;
+	private final String _placeholders;
+	private final String _upsert;
+	private final String _onDuplicate;
+	private final String _loadData;
+	private final List<Column> _columnTypes;
+	private final RowBinder _binder;
 
 	public static Builder builder(String tableName) {
 		return new Builder(tableName);
@@ -77,6 +94,8 @@ public class Table implements Insertable {
 			_columns[i] = columns.get(i).getName();
 		}
 
+		_binder = new RowBinder(columns);
+
 		// placeholders
 		String placeholders = string(",", columns, new Function<Column, String>() {
 
@@ -89,13 +108,22 @@ public class Table implements Insertable {
 		// insert query
 		_insert = "INSERT INTO `" + name + "` VALUES (" + placeholders + ")";
 
-		// bulk insert query
-		StringBuilder buf = new StringBuilder("INSERT INTO `" + name + "` VALUES ");
-		for (int i = 0; i < _bulkSize; i++) {
-			buf.append("(").append(placeholders).append("),\n");
-		}
-		buf.setLength(buf.length() - 2);
-		_bulkInsert = buf.toString();
+		_placeholders = placeholders;
+
+		// upsert query, updating key columns too (collations!)
+		String onDuplicate = " ON DUPLICATE KEY UPDATE " + string(",", _columns, new Function<String, String>() {
+
+			@Override
+			public String apply(String column) {
+				return "`" + column + "`=VALUES(`" + column + "`)";
+			}
+		});
+		_upsert = _insert + onDuplicate;
+		_onDuplicate = onDuplicate;
+
+		// load data query, columns in order of rows
+		_columnTypes = new ArrayList<Column>(columns);
+		_loadData = LoadDataEncoder.isSupported(columns) ? loadDataQuery(name) : null;
 
 		_uniquKeys = new HashMap<String, Table.UniqueKey>();
 		for (Map.Entry<String, List<Column>> e : uniqueKeys.entrySet()) {
@@ -140,7 +168,24 @@ public class Table implements Insertable {
 
 	@Override
 	public String getBulkInsertQuery() {
-		return _bulkInsert;
+		return getBulkInsertQuery(_bulkSize);
+	}
+
+	@Override
+	public String getBulkInsertQuery(int rows) {
+		return bulkInsertQuery(_name, rows);
+	}
+
+	private String bulkInsertQuery(String table, int rows) {
+		if (rows < 1) {
+			throw new IllegalArgumentException("rows must be >= 1, was " + rows);
+		}
+		StringBuilder buf = new StringBuilder("INSERT INTO `" + table + "` VALUES ");
+		for (int i = 0; i < rows; i++) {
+			buf.append("(").append(_placeholders).append("),\n");
+		}
+		buf.setLength(buf.length() - 2);
+		return buf.toString();
 	}
 
 	@Override
@@ -154,10 +199,67 @@ public class Table implements Insertable {
 			throw new IllegalArgumentException("row size does not match number of columns");
 		}
 
-		int bulkOffset = bulkPosition * row.length;
-		for (int i = 0; i < row.length; i++) {
-			ps.setObject(bulkOffset + i + 1, row[i]);
+		_binder.bind(ps, row, bulkPosition * row.length);
+	}
+
+	/**
+	 * @return "LOAD DATA LOCAL INFILE" query for rows encoded by
+	 *         {@link #newLoadDataEncoder()}, null if not supported for the
+	 *         columns of this table
+	 * @see LoadDataEncoder#isSupported(List)
+	 */
+	@CheckForNull
+	public String getLoadDataQuery() {
+		return _loadData;
+	}
+
+	private String loadDataQuery(String table) {
+		return "LOAD DATA LOCAL INFILE 'stream' INTO TABLE `" + table + "` CHARACTER SET binary ("
+				+ string(",", _columns, new Function<String, String>() {
+
+					@Override
+					public String apply(String column) {
+						return "`" + column + "`";
+					}
+				}) + ")";
+	}
+
+	/**
+	 * @return a new encoder for {@link #getLoadDataQuery()}
+	 */
+	public LoadDataEncoder newLoadDataEncoder() {
+		if (_loadData == null) {
+			throw new IllegalStateException("load data not supported for table " + _name);
 		}
+		return new LoadDataEncoder(_columnTypes);
+	}
+
+	@Override
+	public String getUpsertQuery() {
+		return _upsert;
+	}
+
+	@Override
+	public void upsert(PreparedStatement ps, Object[] row) throws SQLException {
+		insert(ps, row, 0);
+	}
+
+	/**
+	 * @return {@link PreparedStatement} query for bulk upserts of
+	 *         {@link #getBulkSize()} rows, populated using
+	 *         {@link #insert(PreparedStatement, Object[], int)}
+	 * @see #getUpsertQuery()
+	 */
+	public String getBulkUpsertQuery() {
+		return getBulkUpsertQuery(_bulkSize);
+	}
+
+	/**
+	 * @return {@link PreparedStatement} query for bulk upserts of rows
+	 * @see #getBulkUpsertQuery()
+	 */
+	public String getBulkUpsertQuery(int rows) {
+		return getBulkInsertQuery(rows) + _onDuplicate;
 	}
 
 	@Override
@@ -180,6 +282,12 @@ public class Table implements Insertable {
 		getPrimaryKey().delete(ps, row);
 	}
 
+	public String[] getColumnNames() {
+		String[] columns = new String[_columns.length];
+		System.arraycopy(_columns, 0, columns, 0, columns.length);
+		return columns;
+	}
+
 	@SuppressWarnings("unused")
 	private String getColumnName(int idx) {
 		return _columns[idx];
@@ -211,15 +319,34 @@ public class Table implements Insertable {
 		return _primaryKey;
 	}
 
-	private class UniqueKey implements Insertable {
+	public class UniqueKey implements Insertable {
 		private final String _indexName;
+		private final List<Column> _pkColumns;
 		private final String[] _pkColumnNames;
 		private final int[] _pkColumnIndexes;
 		private final NaturalRowComparator _comparator;
 
 		private final String _select;
 		private final String _update;
+		private final String _where;
+		private final String _stagingTable;
+		private final String _stagedUpdate;
+		private final BitSet _alwaysUpdated;
 		private final String _delete;
+		private final String _rangeDelete;
+		private final boolean _integral;
+
+		private final String _columnList;
+		private final String _keyList;
+		private final String _keyListDesc;
+		private final String _fromCondition;
+		private final String _toCondition;
+		private final String _digest;
+		private final String _checksum;
+		private final NaturalRowComparator _keyComparator;
+		private final String _weightList;
+		private final int _weightCount;
+		private final NaturalRowComparator _weightComparator;
 
 		private UniqueKey(String indexName, List<Column> pkColumns) {
 			if (StringUtils.empty(indexName)) {
@@ -230,6 +357,7 @@ public class Table implements Insertable {
 			}
 
 			_indexName = indexName;
+			_pkColumns = new ArrayList<Column>(pkColumns);
 
 			_pkColumnNames = new String[pkColumns.size()];
 			String[] pkColumnCollations = null;
@@ -251,13 +379,33 @@ public class Table implements Insertable {
 				_pkColumnIndexes[i] = getColumnIndex(_pkColumnNames[i]);
 			}
 
-			// comparator
+			// comparators
+			int[] keyIndexes = new int[_pkColumnNames.length];
+			for (int i = 0; i < keyIndexes.length; i++) {
+				keyIndexes[i] = i;
+			}
 			if (pkColumnCollations != null) {
 				_comparator = new CollationRowComparator(_pkColumnIndexes, pkColumnCollations);
+				_keyComparator = new CollationRowComparator(keyIndexes, pkColumnCollations);
 			} else {
 				_comparator = new NaturalRowComparator(_pkColumnIndexes);
+				_keyComparator = new NaturalRowComparator(keyIndexes);
 			}
 
+			// WEIGHT_STRING(..) of collated key columns appended to rows
+			StringBuilder weightList = new StringBuilder();
+			int[] weightIndexes = _pkColumnIndexes.clone();
+			int weightCount = 0;
+			for (int i = 0; i < _pkColumnNames.length; i++) {
+				if (pkColumnCollations != null && pkColumnCollations[i] != null) {
+					weightList.append(",WEIGHT_STRING(`").append(_pkColumnNames[i]).append("`)");
+					weightIndexes[i] = _columns.length + weightCount++;
+				}
+			}
+			_weightList = weightList.toString();
+			_weightCount = weightCount;
+			_weightComparator = new NaturalRowComparator(weightIndexes);
+
 			// value list
 			String columnList = string(",", _columns, new Function<String, String>() {
 
@@ -266,6 +414,49 @@ public class Table implements Insertable {
 					return "`" + column + "`";
 				}
 			});
+			_columnList = columnList;
+
+			// key list
+			_keyList = string(",", pkColumns, new Function<Column, String>() {
+
+				@Override
+				public String apply(Column column) {
+					return "`" + column.getName() + "`";
+				}
+			});
+			_keyListDesc = string(",", pkColumns, new Function<Column, String>() {
+
+				@Override
+				public String apply(Column column) {
+					return "`" + column.getName() + "` DESC";
+				}
+			});
+
+			// range conditions
+			_fromCondition = boundCondition(">", ">=");
+			_toCondition = boundCondition("<", "<");
+
+			// digest of all columns, length prefixed to be unambiguous. CONCAT_WS
+			// skips NULLs, hence NULL markers
+			String values = string(",", _columns, new Function<String, String>() {
+
+				@Override
+				public String apply(String column) {
+					return "CONCAT(LENGTH(`" + column + "`),':',`" + column + "`)";
+				}
+			});
+			String nulls = string(",", _columns, new Function<String, String>() {
+
+				@Override
+				public String apply(String column) {
+					return "ISNULL(`" + column + "`)";
+				}
+			});
+			_digest = "MD5(CONCAT_WS('#'," + values + ",CONCAT(" + nulls + ")))";
+
+			// checksum of all rows
+			_checksum = "SELECT COUNT(*), CAST(COALESCE(BIT_XOR(CAST(CONV(SUBSTRING(" + _digest
+					+ ",1,16),16,10) AS UNSIGNED)),0) AS SIGNED) FROM `" + _name + "`";
 
 			// update assignments
 			String assignments = string(",", _columns, new Function<String, String>() {
@@ -286,20 +477,84 @@ public class Table implements Insertable {
 			});
 
 			// ordered select query
-			_select = "SELECT " + columnList + "  FROM `" + _name + "` ORDER BY "
-					+ string(",", pkColumns, new Function<Column, String>() {
+			_select = "SELECT " + columnList + "  FROM `" + _name + "` ORDER BY " + _keyList;
+
+			// update query
+			_update = "UPDATE `" + _name + "` SET " + assignments + " WHERE " + where;
+			_where = where;
+
+			// temporary staging table, names are limited to 64 characters
+			String staging = "dbcopy_" + _name;
+			_stagingTable = staging.length() > 64 ? staging.substring(0, 64) : staging;
+			_stagedUpdate = "UPDATE `" + _name + "` JOIN `" + _stagingTable + "` USING (" + _keyList + ") SET "
+					+ string(",", _columns, new Function<String, String>() {
 
 						@Override
-						public String apply(Column column) {
-							return "`" + column.getName() + "`";
+						public String apply(String column) {
+							return "`" + _name + "`.`" + column + "` = `" + _stagingTable + "`.`" + column + "`";
 						}
 					});
 
-			// update query
-			_update = "UPDATE `" + _name + "` SET " + assignments + " WHERE " + where;
+			// explicitly assigned to prevent ON UPDATE CURRENT_TIMESTAMP
+			_alwaysUpdated = new BitSet(_columns.length);
+			for (int i = 0; i < _columnTypes.size(); i++) {
+				String dataType = _columnTypes.get(i).getDataType();
+				if ("timestamp".equals(dataType) || "datetime".equals(dataType)) {
+					_alwaysUpdated.set(i);
+				}
+			}
 
 			// delete query
 			_delete = "DELETE FROM `" + _name + "` WHERE " + where;
+
+			// range delete query, upper bound inclusive
+			_rangeDelete = "DELETE FROM `" + _name + "` WHERE " + _fromCondition + " AND " + boundCondition("<", "<=");
+
+			boolean integral = true;
+			for (Column col : pkColumns) {
+				integral &= col.isIntegral();
+			}
+			_integral = integral;
+		}
+
+		/**
+		 * (a op ?) OR (a = ? AND b op ?) OR ... OR (a = ? AND b = ? AND ... z
+		 * lastOp ?)
+		 */
+		private String boundCondition(String op, String lastOp) {
+			StringBuilder buf = new StringBuilder("(");
+			for (int i = 0; i < _pkColumnNames.length; i++) {
+				if (i > 0) {
+					buf.append(" OR ");
+				}
+				buf.append("(");
+				for (int j = 0; j < i; j++) {
+					buf.append("`").append(_pkColumnNames[j]).append("` = ? AND ");
+				}
+				buf.append("`").append(_pkColumnNames[i]).append("` ")
+						.append(i == _pkColumnNames.length - 1 ? lastOp : op).append(" ?)");
+			}
+			return buf.append(")").toString();
+		}
+
+		private String where(KeyRange range) {
+			if (range.getFrom() != null) {
+				return range.getTo() != null ? " WHERE " + _fromCondition + " AND " + _toCondition : " WHERE "
+						+ _fromCondition;
+			} else {
+				return range.getTo() != null ? " WHERE " + _toCondition : "";
+			}
+		}
+
+		private void addBoundParameters(List<Object> params, Object[] key) {
+			if (key.length != _pkColumnNames.length) {
+				throw new IllegalArgumentException("key size does not match number of key columns");
+			}
+			for (int i = 0; i < key.length; i++) {
+				for (int j = 0; j <= i; j++) {
+					params.add(key[j]);
+				}
+			}
 		}
 
 		@Override
@@ -307,11 +562,524 @@ public class Table implements Insertable {
 			return _select;
 		}
 
+		/**
+		 * @return ordered select query restricted to range
+		 * @see #getRangeParameters(KeyRange)
+		 */
+		public String getOrderedSelect(KeyRange range) {
+			return getOrderedSelect(range, false);
+		}
+
+		/**
+		 * @param weightStrings
+		 *            if true, WEIGHT_STRING(..) of each collated key column is
+		 *            selected after all columns
+		 * @return ordered select query restricted to range
+		 * @see #getRangeParameters(KeyRange)
+		 * @see #getWeightComparator()
+		 */
+		public String getOrderedSelect(KeyRange range, boolean weightStrings) {
+			if (!range.isBounded() && (!weightStrings || _weightCount == 0)) {
+				return _select;
+			}
+			return "SELECT " + _columnList + (weightStrings ? _weightList : "") + " FROM `" + _name + "`"
+					+ where(range) + " ORDER BY " + _keyList;
+		}
+
+		/**
+		 * @return number of WEIGHT_STRING(..) columns selected by
+		 *         {@link #getOrderedSelect(KeyRange, boolean)}
+		 */
+		public int getWeightCount() {
+			return _weightCount;
+		}
+
+		/**
+		 * @return a comparator for rows selected with weight strings, comparing
+		 *         the binary weights of collated key columns instead of using
+		 *         collations
+		 * @see #getOrderedSelect(KeyRange, boolean)
+		 */
+		public NaturalRowComparator getWeightComparator() {
+			return _weightComparator;
+		}
+
+		/**
+		 * @return ordered select query returning key columns and a digest of
+		 *         all columns per row, restricted to range
+		 * @see #getRangeParameters(KeyRange)
+		 * @see #getKeyComparator()
+		 */
+		public String getDigestSelect(KeyRange range) {
+			return "SELECT " + _keyList + "," + _digest + " FROM `" + _name + "`" + where(range) + " ORDER BY "
+					+ _keyList;
+		}
+
+		/**
+		 * @return ordered select query returning key columns, a digest of all
+		 *         columns and all columns per row, restricted to range
+		 * @see #getRangeParameters(KeyRange)
+		 * @see #getKeyComparator()
+		 */
+		public String getDigestRowSelect(KeyRange range) {
+			return "SELECT " + _keyList + "," + _digest + "," + _columnList + " FROM `" + _name + "`" + where(range)
+					+ " ORDER BY " + _keyList;
+		}
+
+		/**
+		 * @return ordered select query returning key columns only, restricted
+		 *         to range
+		 * @see #getRangeParameters(KeyRange)
+		 * @see #getKeyComparator()
+		 */
+		public String getKeySelect(KeyRange range) {
+			return "SELECT " + _keyList + " FROM `" + _name + "`" + where(range) + " ORDER BY " + _keyList;
+		}
+
+		/**
+		 * @return query selecting all columns of rows with a value of column
+		 *         greater or equal to a single parameter
+		 */
+		public String getChangedSelect(String column) {
+			return "SELECT " + _columnList + " FROM `" + _name + "` WHERE `" + column + "` >= ?";
+		}
+
+		/**
+		 * @return query selecting all columns of count rows by key
+		 * @see #getKeyedParameters(List)
+		 */
+		public String getKeyedSelect(int count) {
+			return keyed(new StringBuilder("SELECT ").append(_columnList).append(" FROM `").append(_name)
+					.append("` WHERE "), count);
+		}
+
+		/**
+		 * @return query deleting count rows by key
+		 * @see #delete(PreparedStatement, Object[], int)
+		 */
+		public String getKeyedDelete(int count) {
+			return keyed(new StringBuilder("DELETE FROM `").append(_name).append("` WHERE "), count);
+		}
+
+		/**
+		 * append condition matching count keys
+		 */
+		private String keyed(StringBuilder buf, int count) {
+			if (count < 1) {
+				throw new IllegalArgumentException("count must be >= 1, was " + count);
+			}
+			if (_pkColumnNames.length == 1) {
+				buf.append("`").append(_pkColumnNames[0]).append("` IN (");
+				for (int i = 0; i < count; i++) {
+					buf.append(i == 0 ? "?" : ",?");
+				}
+				buf.append(")");
+			} else {
+				String keyCondition = "(" + string(" AND ", _pkColumnNames, new Function<String, String>() {
+
+					@Override
+					public String apply(String column) {
+						return "`" + column + "` = ?";
+					}
+				}) + ")";
+				for (int i = 0; i < count; i++) {
+					buf.append(i == 0 ? "" : " OR ").append(keyCondition);
+				}
+			}
+			return buf.toString();
+		}
+
+		/**
+		 * @return parameters for {@link #getKeyedSelect(int)}
+		 */
+		public Object[] getKeyedParameters(List<Object[]> keys) {
+			Object[] params = new Object[keys.size() * _pkColumnNames.length];
+			int i = 0;
+			for (Object[] key : keys) {
+				if (key.length != _pkColumnNames.length) {
+					throw new IllegalArgumentException("key size does not match number of key columns");
+				}
+				for (Object value : key) {
+					params[i++] = value;
+				}
+			}
+			return params;
+		}
+
+		/**
+		 * @return a row with all key columns set to the values of key, all
+		 *         other values null
+		 */
+		public Object[] toRow(Object[] key) {
+			if (key.length != _pkColumnNames.length) {
+				throw new IllegalArgumentException("key size does not match number of key columns");
+			}
+			Object[] row = new Object[_columns.length];
+			for (int i = 0; i < _pkColumnIndexes.length; i++) {
+				row[_pkColumnIndexes[i]] = key[i];
+			}
+			return row;
+		}
+
+		/**
+		 * @return the key values of row
+		 */
+		public Object[] toKey(Object[] row) {
+			if (row.length != _columns.length) {
+				throw new IllegalArgumentException("row size does not match number of columns");
+			}
+			Object[] key = new Object[_pkColumnIndexes.length];
+			for (int i = 0; i < _pkColumnIndexes.length; i++) {
+				key[i] = row[_pkColumnIndexes[i]];
+			}
+			return key;
+		}
+
+		/**
+		 * @return a comparator for rows starting with all key columns
+		 * @see #getDigestSelect(KeyRange)
+		 * @see #getDigestRowSelect(KeyRange)
+		 */
+		public NaturalRowComparator getKeyComparator() {
+			return _keyComparator;
+		}
+
+		/**
+		 * @return query returning row count and a checksum of all rows in
+		 *         range (both long)
+		 * @see #getRangeParameters(KeyRange)
+		 */
+		public String getChecksumQuery(KeyRange range) {
+			return _checksum + where(range);
+		}
+
+		/**
+		 * @return query returning the key columns of the row at given offset
+		 *         in range
+		 * @see #getRangeParameters(KeyRange)
+		 */
+		public String getBoundaryQuery(KeyRange range, long offset) {
+			return "SELECT " + _keyList + " FROM `" + _name + "`" + where(range) + " ORDER BY " + _keyList + " LIMIT "
+					+ offset + ",1";
+		}
+
+		/**
+		 * @return query returning the key columns of the row at given offset
+		 *         from the end of range
+		 * @see #getRangeParameters(KeyRange)
+		 */
+		public String getLastKeyQuery(KeyRange range, long offset) {
+			return "SELECT " + _keyList + " FROM `" + _name + "`" + where(range) + " ORDER BY " + _keyListDesc
+					+ " LIMIT " + offset + ",1";
+		}
+
+		/**
+		 * @return parameters for range queries
+		 * @see #getOrderedSelect(KeyRange)
+		 * @see #getChecksumQuery(KeyRange)
+		 * @see #getBoundaryQuery(KeyRange, long)
+		 */
+		public Object[] getRangeParameters(KeyRange range) {
+			List<Object> params = new ArrayList<Object>();
+			if (range.getFrom() != null) {
+				addBoundParameters(params, range.getFrom());
+			}
+			if (range.getTo() != null) {
+				addBoundParameters(params, range.getTo());
+			}
+			return params.toArray();
+		}
+
+		/**
+		 * @return a {@link SqlFunction} splitting range into chunks of
+		 *         chunkSize rows
+		 */
+		public SqlFunction<List<KeyRange>> chunks(final KeyRange range, final long chunkSize) {
+			if (chunkSize < 1) {
+				throw new IllegalArgumentException("chunkSize must be >= 1, was " + chunkSize);
+			}
+			return new SqlFunction<List<KeyRange>>() {
+
+				@Override
+				public List<KeyRange> apply(Connection c) throws SQLException {
+					List<KeyRange> chunks = new ArrayList<KeyRange>();
+					KeyRange rest = range;
+					Object[] boundary;
+					while ((boundary = Utils.executePrepared(c, getBoundaryQuery(rest, chunkSize), new ArrayHandler(),
+							getRangeParameters(rest))).length > 0) {
+						KeyRange[] split = rest.split(boundary);
+						chunks.add(split[0]);
+						rest = split[1];
+					}
+					chunks.add(rest);
+					return chunks;
+				}
+			};
+		}
+
+		/**
+		 * @return a {@link SqlFunction} splitting the whole table into ranges
+		 *         of approximately rowsPerRange rows, based on the estimated
+		 *         number of rows. Boundaries of single column integer keys
+		 *         are computed from MIN and MAX, others from key values at
+		 *         the according offsets.
+		 */
+		public SqlFunction<List<KeyRange>> ranges(final long rowsPerRange) {
+			if (rowsPerRange < 1) {
+				throw new IllegalArgumentException("rowsPerRange must be >= 1, was " + rowsPerRange);
+			}
+			return new SqlFunction<List<KeyRange>>() {
+
+				@Override
+				public List<KeyRange> apply(Connection c) throws SQLException {
+					Object[] status = Utils.executePrepared(c, "SELECT TABLE_ROWS FROM information_schema.TABLES"
+							+ " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?", new ArrayHandler(), _name);
+					long estimated = status.length == 0 || status[0] == null ? 0 : ((Number) status[0]).longValue();
+
+					int count = (int) Math.min(Integer.MAX_VALUE, estimated / rowsPerRange);
+					if (count <= 1) {
+						return Collections.singletonList(KeyRange.ALL);
+					} else if (_pkColumns.size() == 1 && _pkColumns.get(0).isIntegral()) {
+						String column = "`" + _pkColumnNames[0] + "`";
+						Object[] minMax = Utils.execute(c, "SELECT MIN(" + column + "), MAX(" + column + ") FROM `"
+								+ _name + "`", new ArrayHandler());
+						if (minMax[0] == null) {
+							return Collections.singletonList(KeyRange.ALL);
+						}
+						BigInteger min = new BigInteger(minMax[0].toString());
+						BigInteger step = new BigInteger(minMax[1].toString()).subtract(min)
+								.divide(BigInteger.valueOf(count)).add(BigInteger.ONE);
+
+						List<KeyRange> ranges = new ArrayList<KeyRange>(count);
+						KeyRange rest = KeyRange.ALL;
+						for (int i = 1; i < count; i++) {
+							BigInteger boundary = min.add(step.multiply(BigInteger.valueOf(i)));
+							KeyRange[] split = rest.split(new Object[] { boundary.bitLength() < 64 ? (Object) boundary
+									.longValue() : boundary });
+							ranges.add(split[0]);
+							rest = split[1];
+						}
+						ranges.add(rest);
+						return ranges;
+					} else {
+						return chunks(KeyRange.ALL, estimated / count).apply(c);
+					}
+				}
+			};
+		}
+
+		/**
+		 * @return a {@link SqlFunction} selecting all columns of rows by key
+		 * @see #getKeyedSelect(int)
+		 */
+		public SqlFunction<List<Object[]>> fetch(final List<Object[]> keys) {
+			return new SqlFunction<List<Object[]>>() {
+
+				@Override
+				public List<Object[]> apply(Connection c) throws SQLException {
+					if (keys.isEmpty()) {
+						return Collections.emptyList();
+					}
+					return Utils.executePrepared(c, getKeyedSelect(keys.size()), new ArrayListHandler(),
+							getKeyedParameters(keys));
+				}
+			};
+		}
+
+		/**
+		 * @return a {@link SqlFunction} returning the maximum value of column,
+		 *         null for empty tables
+		 */
+		public SqlFunction<Object> max(final String column) {
+			return new SqlFunction<Object>() {
+
+				@Override
+				public Object apply(Connection c) throws SQLException {
+					Object[] row = Utils.executePrepared(c, "SELECT MAX(`" + column + "`) FROM `" + _name + "`",
+							new ArrayHandler());
+					return row.length == 0 ? null : row[0];
+				}
+			};
+		}
+
+		/**
+		 * @return a {@link SqlFunction} returning the key at offset in range
+		 */
+		public SqlFunction<Object[]> boundary(final KeyRange range, final long offset) {
+			return new SqlFunction<Object[]>() {
+
+				@Override
+				public Object[] apply(Connection c) throws SQLException {
+					Object[] boundary = Utils.executePrepared(c, getBoundaryQuery(range, offset), new ArrayHandler(),
+							getRangeParameters(range));
+					if (boundary.length == 0) {
+						throw new IllegalStateException("no row at offset " + offset + " in range " + range);
+					}
+					return boundary;
+				}
+			};
+		}
+
+		/**
+		 * @return a {@link SqlFunction} returning the key at offset from the
+		 *         end of range, null if range has less rows
+		 */
+		public SqlFunction<Object[]> last(final KeyRange range, final long offset) {
+			return new SqlFunction<Object[]>() {
+
+				@Override
+				public Object[] apply(Connection c) throws SQLException {
+					Object[] key = Utils.executePrepared(c, getLastKeyQuery(range, offset), new ArrayHandler(),
+							getRangeParameters(range));
+					return key.length == 0 ? null : key;
+				}
+			};
+		}
+
+		/**
+		 * @return a {@link SqlFunction} returning row count and checksum for
+		 *         each range
+		 * @see #getChecksumQuery(KeyRange)
+		 */
+		public SqlFunction<List<long[]>> checksums(final List<KeyRange> ranges) {
+			return new SqlFunction<List<long[]>>() {
+
+				@Override
+				public List<long[]> apply(Connection c) throws SQLException {
+					List<long[]> checksums = new ArrayList<long[]>(ranges.size());
+					for (KeyRange range : ranges) {
+						Object[] row = Utils.executePrepared(c, getChecksumQuery(range), new ArrayHandler(),
+								getRangeParameters(range));
+						checksums.add(new long[] { ((Number) row[0]).longValue(), ((Number) row[1]).longValue() });
+					}
+					return checksums;
+				}
+			};
+		}
+
+		public List<Column> getKeyColumns() {
+			return Collections.unmodifiableList(_pkColumns);
+		}
+
+		public String[] getKeyColumnNames() {
+			String[] names = new String[_pkColumnNames.length];
+			System.arraycopy(_pkColumnNames, 0, names, 0, names.length);
+			return names;
+		}
+
+		public Table getTable() {
+			return Table.this;
+		}
+
 		@Override
 		public String getUpdateQuery() {
 			return _update;
 		}
 
+		/**
+		 * @return name of a temporary table with the same definition as the
+		 *         table of this key, used to apply rows set-based
+		 * @see #getStagingQueries()
+		 */
+		public String getStagingTable() {
+			return _stagingTable;
+		}
+
+		/**
+		 * @return queries (re)creating the empty staging table
+		 * @see #getStagingTable()
+		 */
+		public String[] getStagingQueries() {
+			return new String[] { getDropStagingQuery(), "CREATE TEMPORARY TABLE `" + _stagingTable + "` LIKE `" + _name + "`" };
+		}
+
+		/**
+		 * @return {@link PreparedStatement} query for bulk inserts of rows
+		 *         into the staging table
+		 * @see #insert(PreparedStatement, Object[], int)
+		 */
+		public String getStagingInsertQuery(int rows) {
+			return bulkInsertQuery(_stagingTable, rows);
+		}
+
+		/**
+		 * @return "LOAD DATA LOCAL INFILE" query into the staging table, null
+		 *         if not supported
+		 * @see Table#getLoadDataQuery()
+		 */
+		@CheckForNull
+		public String getStagingLoadDataQuery() {
+			return _loadData == null ? null : loadDataQuery(_stagingTable);
+		}
+
+		/**
+		 * @return query updating all columns (including key columns equal by
+		 *         collation) of rows joined with the staging table by key
+		 */
+		public String getStagedUpdateQuery() {
+			return _stagedUpdate;
+		}
+
+		public String getDropStagingQuery() {
+			return "DROP TEMPORARY TABLE IF EXISTS `" + _stagingTable + "`";
+		}
+
+		/**
+		 * @return query removing all rows from the staging table
+		 */
+		public String getClearStagingQuery() {
+			return "DELETE FROM `" + _stagingTable + "`";
+		}
+
+		/**
+		 * @param changed
+		 *            indexes of columns to update
+		 * @return {@link PreparedStatement} query updating changed columns
+		 *         (and temporal columns that might be updated automatically)
+		 * @see #update(PreparedStatement, Object[], BitSet)
+		 */
+		public String getUpdateQuery(BitSet changed) {
+			StringBuilder buf = new StringBuilder("UPDATE `").append(_name).append("` SET ");
+			BitSet columns = updated(changed);
+			for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1)) {
+				buf.append("`").append(_columns[i]).append("` = ?,");
+			}
+			buf.setLength(buf.length() - 1);
+			return buf.append(" WHERE ").append(_where).toString();
+		}
+
+		/**
+		 * populate an update query of changed columns with values
+		 * 
+		 * @see #getUpdateQuery(BitSet)
+		 */
+		public void update(PreparedStatement ps, Object[] row, BitSet changed) throws SQLException {
+			if (row.length != _columns.length) {
+				throw new IllegalArgumentException("row size does not match number of columns");
+			}
+
+			// set
+			int parameter = 1;
+			BitSet columns = updated(changed);
+			for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1)) {
+				_binder.bind(ps, parameter++, i, row[i]);
+			}
+
+			// where
+			for (int i = 0; i < _pkColumnIndexes.length; i++) {
+				_binder.bind(ps, parameter++, _pkColumnIndexes[i], row[_pkColumnIndexes[i]]);
+			}
+		}
+
+		private BitSet updated(BitSet changed) {
+			if (changed.isEmpty() || changed.length() > _columns.length) {
+				throw new IllegalArgumentException("illegal changed columns " + changed);
+			}
+			BitSet columns = (BitSet) changed.clone();
+			columns.or(_alwaysUpdated);
+			return columns;
+		}
+
 		@Override
 		public void update(PreparedStatement ps, Object[] row) throws SQLException {
 			/*
@@ -324,13 +1092,11 @@ public class Table implements Insertable {
 			}
 
 			// set
-			for (int i = 0; i < _columns.length; i++) {
-				ps.setObject(i + 1, row[i]);
-			}
+			_binder.bind(ps, row, 0);
 
 			// where
 			for (int i = 0; i < _pkColumnIndexes.length; i++) {
-				ps.setObject(_columns.length + i + 1, row[_pkColumnIndexes[i]]);
+				_binder.bind(ps, _columns.length + i + 1, _pkColumnIndexes[i], row[_pkColumnIndexes[i]]);
 			}
 		}
 
@@ -346,7 +1112,63 @@ public class Table implements Insertable {
 			}
 
 			for (int i = 0; i < _pkColumnIndexes.length; i++) {
-				ps.setObject(i + 1, row[_pkColumnIndexes[i]]);
+				_binder.bind(ps, i + 1, _pkColumnIndexes[i], row[_pkColumnIndexes[i]]);
+			}
+		}
+
+		/**
+		 * populate a keyed delete query with the key of row
+		 * 
+		 * @see #getKeyedDelete(int)
+		 */
+		public void delete(PreparedStatement ps, Object[] row, int bulkPosition) throws SQLException {
+			if (row.length != _columns.length) {
+				throw new IllegalArgumentException("row size does not match number of columns");
+			}
+
+			int offset = bulkPosition * _pkColumnIndexes.length;
+			for (int i = 0; i < _pkColumnIndexes.length; i++) {
+				_binder.bind(ps, offset + i + 1, _pkColumnIndexes[i], row[_pkColumnIndexes[i]]);
+			}
+		}
+
+		/**
+		 * @return true if all key columns are integral, i.e. key ranges of the
+		 *         database contain the same rows as ranges of
+		 *         {@link #getComparator()}
+		 * @see #getRangeDeleteQuery()
+		 */
+		public boolean isIntegral() {
+			return _integral;
+		}
+
+		/**
+		 * @return query deleting all rows from the key of a row to the key of
+		 *         another row (both inclusive)
+		 * @see #deleteRange(PreparedStatement, Object[], Object[])
+		 */
+		public String getRangeDeleteQuery() {
+			return _rangeDelete;
+		}
+
+		/**
+		 * populate a range delete query with the keys of two rows
+		 * 
+		 * @see #getRangeDeleteQuery()
+		 */
+		public void deleteRange(PreparedStatement ps, Object[] from, Object[] to) throws SQLException {
+			if (from.length != _columns.length || to.length != _columns.length) {
+				throw new IllegalArgumentException("row size does not match number of columns");
+			}
+
+			int parameter = 1;
+			for (Object[] row : new Object[][] { from, to }) {
+				// same order as bound conditions
+				for (int i = 0; i < _pkColumnIndexes.length; i++) {
+					for (int j = 0; j <= i; j++) {
+						_binder.bind(ps, parameter++, _pkColumnIndexes[j], row[_pkColumnIndexes[j]]);
+					}
+				}
 			}
 		}
 
@@ -375,6 +1197,11 @@ public class Table implements Insertable {
 			return Table.this.getBulkInsertQuery();
 		}
 
+		@Override
+		public String getBulkInsertQuery(int rows) {
+			return Table.this.getBulkInsertQuery(rows);
+		}
+
 		@Override
 		public void insert(PreparedStatement insert, Object[] values) throws SQLException {
 			Table.this.insert(insert, values);
@@ -385,6 +1212,16 @@ public class Table implements Insertable {
 			Table.this.insert(bulkInsert, values, bulkPosition);
 
 		}
+
+		@Override
+		public String getUpsertQuery() {
+			return Table.this.getUpsertQuery();
+		}
+
+		@Override
+		public void upsert(PreparedStatement upsert, Object[] values) throws SQLException {
+			Table.this.upsert(upsert, values);
+		}
 	}
 
 	public static final class Builder {
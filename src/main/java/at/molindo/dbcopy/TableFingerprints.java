@@ -0,0 +1,243 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import at.molindo.dbcopy.task.SkipCheck;
+import at.molindo.dbcopy.util.SqlFunction;
+import at.molindo.dbcopy.util.Utils;
+import at.molindo.utils.data.StringUtils;
+
+/**
+ * Detects tables that didn't change since the previous run according to a
+ * {@link SkipCheck} per table. Fingerprints of source tables must be read
+ * before the snapshot of source is taken and are stored for tables that were
+ * compared successfully.
+ */
+public class TableFingerprints {
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TableFingerprints.class);
+
+	private static final String UPDATE_TIME_QUERY = "SELECT TABLE_NAME, CONCAT(UPDATE_TIME, '/', TABLE_ROWS)"
+			+ " FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE()"
+			+ " AND UPDATE_TIME < NOW() - INTERVAL 1 SECOND";
+
+	private static final String MODIFIED_COUNTER_QUERY = "SELECT SUBSTRING(NAME, LENGTH(DATABASE()) + 2),"
+			+ " CONCAT(NUM_ROWS, '/', MODIFIED_COUNTER) FROM information_schema.INNODB_SYS_TABLESTATS"
+			+ " WHERE NAME LIKE CONCAT(DATABASE(), '/%')";
+
+	/**
+	 * map of first column to second column, rows with null values are
+	 * ignored
+	 */
+	private static final ResultSetHandler<Map<String, String>> FINGERPRINT_HANDLER = new ResultSetHandler<Map<String, String>>() {
+
+		@Override
+		public Map<String, String> handle(ResultSet rs) throws SQLException {
+			Map<String, String> map = new HashMap<String, String>();
+			while (rs.next()) {
+				String key = rs.getString(1);
+				String value = rs.getString(2);
+				if (key != null && value != null) {
+					map.put(key, value);
+				}
+			}
+			return map;
+		}
+	};
+
+	private final File _file;
+	private final Map<String, SkipCheck> _checks;
+	private final Properties _stored = new Properties();
+	private final Map<String, String> _current = new HashMap<String, String>();
+
+	/**
+	 * @param checks
+	 *            checks other than {@link SkipCheck#NONE} by table name
+	 */
+	public TableFingerprints(File file, Map<String, SkipCheck> checks) {
+		if (file == null) {
+			throw new NullPointerException("file");
+		}
+		if (checks == null) {
+			throw new NullPointerException("checks");
+		}
+		_file = file;
+		_checks = checks;
+
+		if (file.exists()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					_stored.load(in);
+				} finally {
+					Utils.close(in);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("failed to read fingerprints " + file.getAbsolutePath(), e);
+			}
+		}
+	}
+
+	/**
+	 * read fingerprints from source before {@link Database#start()}, changes
+	 * after the snapshot was taken are detected by the next run
+	 */
+	public void read(Database source) {
+		if (_checks.containsValue(SkipCheck.UPDATE_TIME)) {
+			read(source, SkipCheck.UPDATE_TIME, UPDATE_TIME_QUERY);
+		}
+		if (_checks.containsValue(SkipCheck.MODIFIED_COUNTER)) {
+			read(source, SkipCheck.MODIFIED_COUNTER, MODIFIED_COUNTER_QUERY);
+		}
+	}
+
+	private void read(Database source, SkipCheck check, final String query) {
+		Map<String, String> fingerprints = source.each(new SqlFunction<Map<String, String>>() {
+
+			@Override
+			public Map<String, String> apply(Connection c) throws SQLException {
+				return Utils.execute(c, query, FINGERPRINT_HANDLER);
+			}
+		}).get(0);
+
+		for (Map.Entry<String, SkipCheck> e : _checks.entrySet()) {
+			String fingerprint = fingerprints.get(e.getKey());
+			if (e.getValue() == check && fingerprint != null) {
+				_current.put(e.getKey(), check + ":" + fingerprint);
+			}
+		}
+	}
+
+	/**
+	 * @return names of all tables that didn't change since the previous run
+	 */
+	public Set<String> getUnchanged(Database source, Database target) {
+		Set<String> unchanged = new HashSet<String>();
+
+		// fingerprints
+		for (Map.Entry<String, String> e : _current.entrySet()) {
+			if (e.getValue().equals(_stored.getProperty(e.getKey()))) {
+				unchanged.add(e.getKey());
+			}
+		}
+
+		// checksums
+		Set<String> tables = new HashSet<String>();
+		for (Map.Entry<String, SkipCheck> e : _checks.entrySet()) {
+			if (e.getValue() == SkipCheck.CHECKSUM) {
+				tables.add(e.getKey());
+			}
+		}
+		if (!tables.isEmpty()) {
+			Future<Map<String, String>> sourceSums = source.submit(checksums(tables));
+			Future<Map<String, String>> targetSums = target.submit(checksums(tables));
+
+			Map<String, String> sourceMap = get(sourceSums);
+			Map<String, String> targetMap = get(targetSums);
+			for (String table : tables) {
+				String checksum = sourceMap.get(table);
+				if (checksum != null && checksum.equals(targetMap.get(table))) {
+					unchanged.add(table);
+				}
+			}
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("skipping unchanged tables: " + unchanged);
+		}
+		return unchanged;
+	}
+
+	/**
+	 * store current fingerprints of tables
+	 */
+	public void store(Set<String> tables) {
+		boolean modified = false;
+		for (String table : tables) {
+			String fingerprint = _current.get(table);
+			if (fingerprint != null) {
+				_stored.setProperty(table, fingerprint);
+				modified = true;
+			}
+		}
+		if (!modified) {
+			return;
+		}
+
+		try {
+			OutputStream out = new FileOutputStream(_file);
+			try {
+				_stored.store(out, "table fingerprints");
+			} finally {
+				Utils.close(out);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("failed to write fingerprints " + _file.getAbsolutePath(), e);
+		}
+	}
+
+	private static SqlFunction<Map<String, String>> checksums(final Set<String> tables) {
+		return new SqlFunction<Map<String, String>>() {
+
+			@Override
+			public Map<String, String> apply(Connection c) throws SQLException {
+				StringBuilder buf = new StringBuilder("CHECKSUM TABLE ");
+				for (String table : tables) {
+					buf.append("`").append(table).append("`,");
+				}
+				buf.setLength(buf.length() - 1);
+
+				Map<String, String> checksums = Utils.execute(c, buf.toString(), FINGERPRINT_HANDLER);
+
+				// strip database name
+				Map<String, String> stripped = new HashMap<String, String>();
+				for (Map.Entry<String, String> e : checksums.entrySet()) {
+					stripped.put(StringUtils.afterFirst(e.getKey(), "."), e.getValue());
+				}
+				return stripped;
+			}
+		};
+	}
+
+	private static <T> T get(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("waiting for checksums interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("checksum query failed", e.getCause());
+		}
+	}
+}
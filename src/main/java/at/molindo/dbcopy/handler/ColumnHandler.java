@@ -23,7 +23,8 @@ import at.molindo.dbcopy.Column;
 /**
  * a list of columns, expecting rows:
  * 
- * <ol> <li>name</li> <li>collation</li> </ol>
+ * <ol> <li>name</li> <li>collation</li> <li>data type</li> <li>column type,
+ * e.g. "int(10) unsigned"</li> </ol>
  */
 public class ColumnHandler extends AbstractLinkedKeyedHandler<String, Column> {
 
@@ -34,6 +35,8 @@ public class ColumnHandler extends AbstractLinkedKeyedHandler<String, Column> {
 
 	@Override
 	protected Column createRow(ResultSet rs) throws SQLException {
-		return new Column(rs.getString(1), rs.getString(2));
+		String columnType = rs.getString(4);
+		boolean unsigned = columnType != null && columnType.toLowerCase().contains("unsigned");
+		return new Column(rs.getString(1), rs.getString(2), rs.getString(3), unsigned, null, null);
 	}
 }
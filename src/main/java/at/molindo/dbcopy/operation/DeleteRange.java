@@ -0,0 +1,50 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.operation;
+
+/**
+ * delete all rows with keys from the key of {@link #getValues()} to the key of
+ * {@link #getTo()} (both inclusive)
+ */
+public class DeleteRange extends Operation {
+
+	private final Object[] _to;
+	private final int _rows;
+
+	/**
+	 * @param rows
+	 *            number of rows expected in range
+	 */
+	public DeleteRange(Object[] from, Object[] to, int rows) {
+		super(from);
+		if (to == null) {
+			throw new NullPointerException("to");
+		}
+		if (to.length != from.length) {
+			throw new IllegalArgumentException("from and to must be of same length");
+		}
+		_to = to;
+		_rows = rows;
+	}
+
+	public Object[] getTo() {
+		return _to;
+	}
+
+	public int getRows() {
+		return _rows;
+	}
+}
@@ -15,10 +15,33 @@
  */
 package at.molindo.dbcopy.operation;
 
+import java.util.BitSet;
+
+import javax.annotation.CheckForNull;
+
 public class Update extends Operation {
 
+	private final BitSet _changed;
+
 	public Update(Object[] values, Object[] current) {
+		this(values, current, null);
+	}
+
+	/**
+	 * @param changed
+	 *            indexes of changed columns or null to update all columns
+	 */
+	public Update(Object[] values, Object[] current, @CheckForNull BitSet changed) {
 		super(values);
 		// ignore current, pk must be equal anyway
+		_changed = changed;
+	}
+
+	/**
+	 * @return indexes of changed columns or null if unknown
+	 */
+	@CheckForNull
+	public BitSet getChanged() {
+		return _changed;
 	}
 }
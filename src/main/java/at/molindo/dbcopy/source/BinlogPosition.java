@@ -0,0 +1,47 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.source;
+
+/**
+ * A position in the binary log of a MySQL server as returned by SHOW MASTER
+ * STATUS (read-only)
+ */
+public class BinlogPosition {
+
+	private final String _file;
+	private final long _position;
+
+	public BinlogPosition(String file, long position) {
+		if (file == null) {
+			throw new NullPointerException("file");
+		}
+		_file = file;
+		_position = position;
+	}
+
+	public String getFile() {
+		return _file;
+	}
+
+	public long getPosition() {
+		return _position;
+	}
+
+	@Override
+	public String toString() {
+		return _file + ":" + _position;
+	}
+}
@@ -39,7 +39,7 @@ public class DefaultConnectionPool implements DataSource {
 
 	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DefaultConnectionPool.class);
 
-	private static Queue<Connection> openConnections(String jdbcUrl, String user, String password, int poolSize) {
+	static Queue<Connection> openConnections(String jdbcUrl, String user, String password, int poolSize) {
 		try {
 			// load driver
 			Driver.class.getName();
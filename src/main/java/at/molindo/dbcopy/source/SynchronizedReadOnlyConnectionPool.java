@@ -19,12 +19,18 @@ import static at.molindo.utils.collections.IteratorUtils.transform;
 import static at.molindo.utils.data.StringUtils.join;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import javax.annotation.CheckForNull;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
 import at.molindo.dbcopy.util.SqlFunction;
+import at.molindo.dbcopy.util.Utils;
 import at.molindo.utils.collections.ArrayUtils;
 import at.molindo.utils.collections.CollectionUtils;
 import at.molindo.utils.data.Function;
@@ -32,14 +38,19 @@ import at.molindo.utils.data.Function;
 /**
  * Allows synchronizing of reads across all connections in pool by
  * 
- * <ol><li>Locking tables for reading on all pooled connections</li><li>Starting
- * a transaction on all pooled connections</li><li>Unlocking tables on all
- * pooled connections</li><li>Perform work</li><li>Rollback transactions on all
- * pooled connections</li></ol>
+ * <ol><li>Locking tables for reading on a separate connection</li><li>Reading
+ * the current binlog position</li><li>Starting a transaction on all pooled
+ * connections</li><li>Unlocking tables</li><li>Perform work</li><li>Rollback
+ * transactions on all pooled connections</li></ol>
  */
 public class SynchronizedReadOnlyConnectionPool extends DefaultConnectionPool implements DataSource {
 
+	private final String _jdbcUrl;
+	private final String _user;
+	private final String _password;
+
 	private String[] _synchonized;
+	private BinlogPosition _binlogPosition;
 
 	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
 			.getLogger(SynchronizedReadOnlyConnectionPool.class);
@@ -59,16 +70,40 @@ public class SynchronizedReadOnlyConnectionPool extends DefaultConnectionPool im
 
 	public SynchronizedReadOnlyConnectionPool(String name, String jdbcUrl, String user, String password, int poolSize) {
 		super(name, jdbcUrl, user, password, poolSize);
+		_jdbcUrl = jdbcUrl;
+		_user = user;
+		_password = password;
+	}
+
+	/**
+	 * sync all connections for consistent reading without reading the binlog
+	 * position
+	 * 
+	 * @see #syncRead(boolean, String...)
+	 */
+	public void syncRead(String... tables) {
+		syncRead(false, tables);
 	}
 
 	/**
 	 * sync all connections for consistent reading
 	 * 
-	 * <ol> <li>lock all given tables for reading</li> <li>start a transaction
-	 * in {@link Connection#TRANSACTION_REPEATABLE_READ}</li> <li>unlock
-	 * tables</li> </ol>
+	 * <ol> <li>lock all given tables for reading on a separate
+	 * connection</li> <li>read binlog position if requested</li> <li>start a
+	 * transaction with consistent snapshot in
+	 * {@link Connection#TRANSACTION_REPEATABLE_READ} on all pooled
+	 * connections</li> <li>unlock tables</li> </ol>
+	 * 
+	 * The locks are held on a separate connection as START TRANSACTION
+	 * implicitly unlocks tables of its own connection. Hence writes are
+	 * blocked from reading the position until the last snapshot started and
+	 * all snapshots match the position.
+	 * 
+	 * @param binlogPosition
+	 *            true to read the binlog position of the snapshot
+	 * @see #getBinlogPosition()
 	 */
-	public synchronized void syncRead(String... tables) {
+	public synchronized void syncRead(boolean binlogPosition, String... tables) {
 		if (ArrayUtils.empty(tables)) {
 			throw new IllegalArgumentException("no tables to synchonize");
 		}
@@ -77,22 +112,34 @@ public class SynchronizedReadOnlyConnectionPool extends DefaultConnectionPool im
 		}
 		assertIdle();
 
-		// lock tables
-		executeAll(lockTableQuery(tables));
-		// start transaction
-		each(new SqlFunction<Void>() {
-
-			@Override
-			public Void apply(Connection c) throws SQLException {
-				// start read-only transaction
-				c.setReadOnly(true);
-				c.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
-				c.setAutoCommit(false);
-				return null;
-			}
-		});
-		// unlock tables
-		executeAll("UNLOCK TABLES");
+		Connection lock = openConnections(_jdbcUrl, _user, _password, 1).remove();
+		try {
+			// lock tables
+			Utils.execute(lock, lockTableQuery(tables));
+			// binlog position of snapshot
+			_binlogPosition = binlogPosition ? readBinlogPosition(lock) : null;
+			// start transaction
+			each(new SqlFunction<Void>() {
+
+				@Override
+				public Void apply(Connection c) throws SQLException {
+					// start read-only transaction
+					c.setReadOnly(true);
+					c.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+					c.setAutoCommit(false);
+					// snapshot while writes are blocked by locks of separate
+					// connection
+					Utils.execute(c, "START TRANSACTION WITH CONSISTENT SNAPSHOT");
+					return null;
+				}
+			});
+			// unlock tables
+			Utils.execute(lock, "UNLOCK TABLES");
+		} catch (SQLException e) {
+			throw new RuntimeException("synchronizing connections failed", e);
+		} finally {
+			Utils.close(lock);
+		}
 
 		_synchonized = tables;
 
@@ -101,6 +148,44 @@ public class SynchronizedReadOnlyConnectionPool extends DefaultConnectionPool im
 		}
 	}
 
+	/**
+	 * @return binlog position of last snapshot or null if not available (e.g.
+	 *         not requested, binlog disabled or missing privileges)
+	 */
+	@CheckForNull
+	public synchronized BinlogPosition getBinlogPosition() {
+		return _binlogPosition;
+	}
+
+	/**
+	 * reads binlog position while tables are locked
+	 * 
+	 * @return binlog position or null if not available
+	 */
+	@CheckForNull
+	private static BinlogPosition readBinlogPosition(Connection c) {
+		BinlogPosition position;
+		try {
+			position = Utils.execute(c, "SHOW MASTER STATUS", new ResultSetHandler<BinlogPosition>() {
+
+				@Override
+				public BinlogPosition handle(ResultSet rs) throws SQLException {
+					return rs.next() ? new BinlogPosition(rs.getString(1), rs.getLong(2)) : null;
+				}
+			});
+		} catch (SQLException e) {
+			log.warn("reading binlog position failed (requires REPLICATION CLIENT privilege)", e);
+			return null;
+		}
+
+		if (position == null) {
+			log.info("binlog position not available");
+		} else if (log.isDebugEnabled()) {
+			log.debug("binlog position of snapshot: " + position);
+		}
+		return position;
+	}
+
 	public synchronized void unsyncRead() {
 		if (_synchonized == null) {
 			throw new IllegalStateException("not synchronized");
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import at.molindo.dbcopy.Column;
+import at.molindo.dbcopy.util.RowBatch;
+import at.molindo.dbcopy.util.SpscBatchQueue;
+import at.molindo.dbcopy.util.Utils;
+
+/**
+ * a {@link Runnable} implementation that reads rows of an ordered query into
+ * {@link RowBatch}es and submits them to a {@link SpscBatchQueue}, succeeded
+ * by {@link RowBatch#END}. The first batch is submitted even if empty, so
+ * that {@link RowBatch#getColumns()} is always available. String columns are
+ * optionally read as raw bytes and only decoded if values are requested.
+ * 
+ * @see SelectReader
+ */
+public class BatchSelectReader extends AbstractConnectionRunnable {
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BatchSelectReader.class);
+
+	private final String _query;
+	private final Object[] _params;
+	private final int _batchSize;
+	private final SpscBatchQueue<RowBatch> _queue;
+	private final boolean _rawStrings;
+
+	public BatchSelectReader(String query, Object[] params, int batchSize, SpscBatchQueue<RowBatch> queue) {
+		this(query, params, batchSize, queue, false);
+	}
+
+	/**
+	 * @param rawStrings
+	 *            true to read string columns as raw bytes
+	 */
+	public BatchSelectReader(String query, Object[] params, int batchSize, SpscBatchQueue<RowBatch> queue,
+			boolean rawStrings) {
+		if (query == null) {
+			throw new NullPointerException("query");
+		}
+		if (params == null) {
+			throw new NullPointerException("params");
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be >= 1, was " + batchSize);
+		}
+		if (queue == null) {
+			throw new NullPointerException("queue");
+		}
+		_query = query;
+		_params = params;
+		_batchSize = batchSize;
+		_queue = queue;
+		_rawStrings = rawStrings;
+	}
+
+	@Override
+	protected void run(Connection connection) throws SQLException {
+
+		ResultSet res = SelectReader.executeQuery(connection, _query, _params);
+
+		try {
+			Column[] header = SelectReader.header(res.getMetaData(), _rawStrings);
+
+			RowBatch batch = new RowBatch(header, _batchSize);
+			boolean first = true;
+			while (res.next()) {
+				batch.add(res);
+				if (batch.isFull()) {
+					_queue.put(batch);
+					batch = new RowBatch(header, _batchSize);
+					first = false;
+				}
+			}
+			if (first || batch.size() > 0) {
+				_queue.put(batch);
+			}
+
+			_queue.put(RowBatch.END);
+		} catch (InterruptedException e) {
+			log.info("reading '" + _query + "' interrupted");
+		} finally {
+			Utils.close(res);
+		}
+	}
+}
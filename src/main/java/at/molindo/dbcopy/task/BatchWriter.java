@@ -18,68 +18,255 @@ package at.molindo.dbcopy.task;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLWarning;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.commons.dbutils.handlers.ArrayHandler;
 
 import at.molindo.dbcopy.Insertable;
 import at.molindo.dbcopy.Table;
+import at.molindo.dbcopy.Table.UniqueKey;
 import at.molindo.dbcopy.operation.Delete;
+import at.molindo.dbcopy.operation.DeleteRange;
 import at.molindo.dbcopy.operation.Insert;
 import at.molindo.dbcopy.operation.Operation;
 import at.molindo.dbcopy.operation.Update;
+import at.molindo.dbcopy.operation.Upsert;
+import at.molindo.dbcopy.util.LoadDataEncoder;
+import at.molindo.dbcopy.util.NamedThreadFactory;
+import at.molindo.dbcopy.util.SpscBatchQueue;
 import at.molindo.dbcopy.util.Utils;
+import at.molindo.utils.data.Function;
 
 import com.mysql.jdbc.Statement;
 
 /**
- * A {@link Runnable} that writes entries from a {@link BlockingQueue} to an
+ * A {@link Runnable} that writes entries from a {@link SpscBatchQueue} to an
  * {@link Insertable} (typically a {@link Table}) until it receives
  * {@link Utils#END}. Operations are batched. Either using
  * {@link Statement#addBatch(String)} or {@link Insertable#getBulkInsertQuery()}
+ * or, optionally, {@link Table#getLoadDataQuery()} for inserts. Rows for
+ * LOAD DATA are encoded by a {@link LoadDataStage} while previous rows are
+ * written.
  */
 public class BatchWriter extends AbstractConnectionRunnable {
 
 	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BatchWriter.class);
 
+	/**
+	 * maximum number of distinct sets of changed columns with own statements
+	 */
+	private static final int MAX_UPDATE_SHAPES = 32;
+
 	private final Insertable _table;
-	private final BlockingQueue<Operation> _queue;
+	private final SpscBatchQueue<Operation> _queue;
 	private final int _bulkSize;
 
-	private final List<Insert> _insertBuffer;
+	private final List<Operation> _insertBuffer;
+	private final String _loadData;
+
+	private final UniqueKey _key;
+	private final List<Operation> _deleteBuffer;
+	private final Map<BitSet, ShapedUpdate> _shapedUpdates = new HashMap<BitSet, ShapedUpdate>();
+
+	private final List<Operation> _stagingBuffer;
+	private final int _stagingWindow;
+	private int _staged;
+
+	private final List<Operation> _upsertBuffer;
+	private final Table _upsertTable;
+	private final UpsertMode _upsertMode;
+
+	private final int _commitRows;
+	private final long _commitInterval;
 
-	public BatchWriter(Insertable table, BlockingQueue<Operation> queue) {
+	public BatchWriter(Insertable table, SpscBatchQueue<Operation> queue) {
+		this(table, queue, false, UpsertMode.NONE, 0, 0, 0);
+	}
+
+	/**
+	 * @param loadData
+	 *            true to write inserts using "LOAD DATA LOCAL INFILE" if
+	 *            supported by table
+	 * @param upsertMode
+	 *            operations to write as multi-row upserts if table is a
+	 *            {@link Table}
+	 * @param stagingWindow
+	 *            number of updates loaded into a staging table before
+	 *            applying them with a single update, 0 to update row by row
+	 * @param commitRows
+	 *            operations per transaction, 0 for no limit
+	 * @param commitInterval
+	 *            maximum duration of a transaction in ms, 0 for no limit.
+	 *            Autocommit is used if both are 0
+	 * @see Table#getLoadDataQuery()
+	 * @see Table#getBulkUpsertQuery()
+	 * @see UniqueKey#getStagedUpdateQuery()
+	 */
+	public BatchWriter(Insertable table, SpscBatchQueue<Operation> queue, boolean loadData, UpsertMode upsertMode,
+			int stagingWindow, int commitRows, long commitInterval) {
 		if (table == null) {
 			throw new NullPointerException("table");
 		}
 		if (queue == null) {
 			throw new NullPointerException("queue");
 		}
+		if (upsertMode == null) {
+			throw new NullPointerException("upsertMode");
+		}
 		_table = table;
 		_queue = queue;
 		_bulkSize = table.getBulkSize();
 
-		_insertBuffer = new ArrayList<Insert>(table.getBulkSize());
+		_insertBuffer = new ArrayList<Operation>(table.getBulkSize());
+
+		if (loadData && table instanceof Table && ((Table) table).getLoadDataQuery() != null) {
+			_loadData = ((Table) table).getLoadDataQuery();
+		} else {
+			if (loadData) {
+				log.warn("load data not supported for " + table.getName() + ", using inserts");
+			}
+			_loadData = null;
+		}
+
+		if (table instanceof Table) {
+			_key = ((Table) table).getPrimaryKey();
+		} else if (table instanceof UniqueKey) {
+			_key = (UniqueKey) table;
+		} else {
+			_key = null;
+		}
+		_deleteBuffer = new ArrayList<Operation>(table.getBulkSize());
+
+		_stagingBuffer = new ArrayList<Operation>(table.getBulkSize());
+		_stagingWindow = _key == null ? 0 : Math.max(0, stagingWindow);
+
+		_upsertBuffer = new ArrayList<Operation>(table.getBulkSize());
+		if (upsertMode != UpsertMode.NONE && table instanceof Table) {
+			_upsertTable = (Table) table;
+			_upsertMode = upsertMode;
+		} else {
+			_upsertTable = null;
+			_upsertMode = UpsertMode.NONE;
+		}
+
+		_commitRows = commitRows;
+		_commitInterval = commitInterval;
 	}
 
 	@Override
 	protected void run(Connection connection) throws SQLException {
 
-		PreparedStatement insert = connection.prepareStatement(_table.getInsertQuery());
-		PreparedStatement bulkInsert = connection.prepareStatement(_table.getBulkInsertQuery());
+		// leave room for the query itself
+		long maxBytes = maxAllowedPacket(connection) / 4 * 3;
+
+		BulkStatements bulkInsert = new BulkStatements(connection, new Function<Integer, String>() {
+
+			@Override
+			public String apply(Integer rows) {
+				return _table.getBulkInsertQuery(rows);
+			}
+		}, _bulkSize, maxBytes);
+		BulkStatements bulkUpsert = _upsertTable == null ? null : new BulkStatements(connection,
+				new Function<Integer, String>() {
+
+					@Override
+					public String apply(Integer rows) {
+						return _upsertTable.getBulkUpsertQuery(rows);
+					}
+				}, _bulkSize, maxBytes);
+		BulkStatements keyedDelete = _key == null ? null : new BulkStatements(connection,
+				new Function<Integer, String>() {
+
+					@Override
+					public String apply(Integer rows) {
+						return _key.getKeyedDelete(rows);
+					}
+				}, _bulkSize, maxBytes);
+		BulkStatements stagingInsert = null;
+		String stagingLoad = null;
+		if (_stagingWindow > 0) {
+			for (String query : _key.getStagingQueries()) {
+				Utils.execute(connection, query);
+			}
+			stagingInsert = new BulkStatements(connection, new Function<Integer, String>() {
+
+				@Override
+				public String apply(Integer rows) {
+					return _key.getStagingInsertQuery(rows);
+				}
+			}, _bulkSize, maxBytes);
+			stagingLoad = _loadData == null ? null : _key.getStagingLoadDataQuery();
+		}
 		PreparedStatement update = connection.prepareStatement(_table.getUpdateQuery());
 		PreparedStatement delete = connection.prepareStatement(_table.getDeleteQuery());
+		PreparedStatement upsert = connection.prepareStatement(_table.getUpsertQuery());
+		Statement load = _loadData == null ? null : loadStatement(connection);
+		PreparedStatement stagedUpdate = _stagingWindow == 0 ? null : connection.prepareStatement(_key
+				.getStagedUpdateQuery());
+		PreparedStatement clearStaging = _stagingWindow == 0 ? null : connection.prepareStatement(_key
+				.getClearStagingQuery());
+		PreparedStatement rangeDelete = _key == null ? null : connection.prepareStatement(_key
+				.getRangeDeleteQuery());
 
+		// rows for LOAD DATA are encoded while previous rows are written
+		ExecutorService encoding = _loadData == null ? null : Executors
+				.newSingleThreadExecutor(new NamedThreadFactory("encoder-" + _table.getName() + "-"));
+		LoadDataStage insertStage = encoding == null ? null : loadDataStage(encoding);
+		LoadDataStage stagingStage = encoding == null || _stagingWindow == 0 ? null : loadDataStage(encoding);
+
+		Transactions transactions = new Transactions(connection, _commitRows, _commitInterval);
 		try {
+			transactions.begin();
+
 			Operation op;
-			int updatesAdded = 0, deletesAdded = 0;
+			int updatesAdded = 0, deletesAdded = 0, upsertsAdded = 0;
 			while ((op = _queue.take()) != Operation.END) {
 
-				if (op instanceof Insert) {
-					_insertBuffer.add((Insert) op);
+				if (op instanceof Update && _upsertMode != UpsertMode.NONE || op instanceof Upsert
+						&& _upsertMode != UpsertMode.NONE || op instanceof Insert && _upsertMode == UpsertMode.ALL) {
+					// key columns are updated too, as by update queries
+					_upsertBuffer.add(op);
+
+					if (_upsertBuffer.size() >= bulkUpsert.getSize()) {
+						executeBulk(bulkUpsert, _upsertBuffer, false, false, "upsert");
+					}
+				} else if (op instanceof Insert) {
+					_insertBuffer.add(op);
+
+					if (_insertBuffer.size() >= bulkInsert.getSize()) {
+						executeInserts(bulkInsert, load, _loadData, insertStage, _insertBuffer);
+					}
+				} else if (op instanceof Update && _stagingWindow > 0) {
+					_stagingBuffer.add(op);
+
+					if (_stagingBuffer.size() >= stagingInsert.getSize()) {
+						_staged += _stagingBuffer.size();
+						executeInserts(stagingInsert, load, stagingLoad, stagingStage, _stagingBuffer);
+						if (_staged >= _stagingWindow) {
+							flushLoad(load, stagingLoad, stagingStage);
+							applyStaged(stagedUpdate, clearStaging);
+						}
+					}
+				} else if (op instanceof Update && shapedUpdate(connection, ((Update) op).getChanged()) != null) {
+					// only changed columns, batched with updates of same columns
+					BitSet changed = ((Update) op).getChanged();
+					ShapedUpdate shaped = _shapedUpdates.get(changed);
+					_key.update(shaped._statement, op.getValues(), changed);
+					shaped._statement.addBatch();
+					shaped._statement.clearParameters();
 
-					if (_insertBuffer.size() % _bulkSize == 0) {
-						executeInserts(insert, bulkInsert, _insertBuffer);
+					if (++shaped._added == _bulkSize) {
+						executeBatch(shaped._statement, shaped._added);
+						shaped._added = 0;
 					}
 				} else if (op instanceof Update) {
 					_table.update(update, op.getValues());
@@ -91,31 +278,93 @@ public class BatchWriter extends AbstractConnectionRunnable {
 						executeBatch(update, updatesAdded);
 						updatesAdded = 0;
 					}
+				} else if (op instanceof Upsert) {
+					_table.upsert(upsert, op.getValues());
+					upsert.addBatch();
+					upsert.clearParameters();
+					upsertsAdded++;
+
+					if (upsertsAdded % _bulkSize == 0) {
+						executeBatch(upsert, upsertsAdded);
+						upsertsAdded = 0;
+					}
+				} else if (op instanceof Delete && _key != null) {
+					_deleteBuffer.add(op);
+
+					if (_deleteBuffer.size() >= keyedDelete.getSize()) {
+						executeBulk(keyedDelete, _deleteBuffer, true, true, "delete");
+					}
 				} else if (op instanceof Delete) {
 					_table.delete(delete, op.getValues());
 					delete.addBatch();
 					delete.clearParameters();
 					deletesAdded++;
 
-					if (updatesAdded % _bulkSize == 0) {
+					if (deletesAdded % _bulkSize == 0) {
 						executeBatch(delete, deletesAdded);
 						deletesAdded = 0;
 					}
+				} else if (op instanceof DeleteRange) {
+					executeDeleteRange(rangeDelete, (DeleteRange) op);
 				}
+				transactions.added();
+			}
+			executeInserts(bulkInsert, load, _loadData, insertStage, _insertBuffer);
+			flushLoad(load, _loadData, insertStage);
+			if (_stagingWindow > 0) {
+				_staged += _stagingBuffer.size();
+				executeInserts(stagingInsert, load, stagingLoad, stagingStage, _stagingBuffer);
+				flushLoad(load, stagingLoad, stagingStage);
+				applyStaged(stagedUpdate, clearStaging);
 			}
-			executeInserts(insert, bulkInsert, _insertBuffer);
 			executeBatch(update, updatesAdded);
+			for (ShapedUpdate shaped : _shapedUpdates.values()) {
+				executeBatch(shaped._statement, shaped._added);
+				shaped._added = 0;
+			}
 			executeBatch(delete, deletesAdded);
+			if (keyedDelete != null) {
+				executeBulk(keyedDelete, _deleteBuffer, true, true, "delete");
+			}
+			executeBatch(upsert, upsertsAdded);
+			if (bulkUpsert != null) {
+				executeBulk(bulkUpsert, _upsertBuffer, false, false, "upsert");
+			}
+			transactions.commit();
 		} catch (SQLException e) {
 			log.warn("shutting down BatchWriter for table " + _table.getName() + " after error");
+			transactions.rollback();
 			throw e;
 		} catch (InterruptedException e) {
 			log.warn("batch writer interrupted");
+			transactions.rollback();
 		} finally {
-			Utils.close(insert);
-			Utils.close(bulkInsert);
+			if (encoding != null) {
+				encoding.shutdownNow();
+			}
+			transactions.close(_table.getName());
+			bulkInsert.close();
+			if (stagingInsert != null) {
+				stagingInsert.close();
+				dropStaging(connection);
+			}
+			Utils.close(stagedUpdate);
+			Utils.close(clearStaging);
 			Utils.close(update);
 			Utils.close(delete);
+			Utils.close(upsert);
+			Utils.close(load);
+			if (bulkUpsert != null) {
+				bulkUpsert.close();
+			}
+			if (keyedDelete != null) {
+				keyedDelete.close();
+			}
+			Utils.close(rangeDelete);
+			for (ShapedUpdate shaped : _shapedUpdates.values()) {
+				Utils.close(shaped._statement);
+			}
+			_shapedUpdates.clear();
 		}
 	}
 
@@ -136,7 +385,8 @@ public class BatchWriter extends AbstractConnectionRunnable {
 			int updateCount = updateCounts[i];
 			if (updateCount == 0) {
 				notModified++;
-			} else if (updateCount == 1) {
+			} else if (updateCount == 1 || updateCount == 2) {
+				// upserts return 2 for updated rows
 				modified++;
 			} else {
 				failed++;
@@ -157,37 +407,204 @@ public class BatchWriter extends AbstractConnectionRunnable {
 		}
 	}
 
-	private void executeInserts(PreparedStatement batch, PreparedStatement bulk, List<Insert> buffer)
+	/**
+	 * @return statement for updates of changed columns, null if all columns
+	 *         should be updated
+	 */
+	@CheckForNull
+	private ShapedUpdate shapedUpdate(Connection connection, @CheckForNull BitSet changed) throws SQLException {
+		if (changed == null || changed.isEmpty() || _key == null) {
+			return null;
+		}
+		ShapedUpdate shaped = _shapedUpdates.get(changed);
+		if (shaped == null && _shapedUpdates.size() < MAX_UPDATE_SHAPES) {
+			shaped = new ShapedUpdate(connection.prepareStatement(_key.getUpdateQuery(changed)));
+			_shapedUpdates.put(changed, shaped);
+		}
+		return shaped;
+	}
+
+	static long maxAllowedPacket(Connection connection) throws SQLException {
+		Object[] row = Utils.execute(connection, "SELECT @@max_allowed_packet", new ArrayHandler());
+		return ((Number) row[0]).longValue();
+	}
+
+	private Statement loadStatement(Connection connection) throws SQLException {
+		java.sql.Statement statement = connection.createStatement();
+		if (statement instanceof Statement) {
+			return (Statement) statement;
+		}
+		Utils.close(statement);
+		throw new SQLException("load data requires a MySQL Connector/J statement, was " + statement.getClass());
+	}
+
+	/**
+	 * apply all rows of the staging table and remove them
+	 */
+	private void applyStaged(PreparedStatement stagedUpdate, PreparedStatement clearStaging) throws SQLException {
+		if (_staged == 0) {
+			return;
+		}
+		int updated = stagedUpdate.executeUpdate();
+		clearStaging.executeUpdate();
+
+		if (updated != _staged) {
+			log.warn("staged update only updated " + updated + " of " + _staged + " rows of " + _table.getName());
+		} else if (log.isDebugEnabled()) {
+			log.debug("staged update updated " + updated + " rows of " + _table.getName());
+		}
+		_staged = 0;
+	}
+
+	private void dropStaging(Connection connection) {
+		try {
+			Utils.execute(connection, _key.getDropStagingQuery());
+		} catch (SQLException e) {
+			log.warn("failed to drop staging table " + _key.getStagingTable(), e);
+		}
+	}
+
+	private LoadDataStage loadDataStage(ExecutorService encoding) {
+		Table table = (Table) _table;
+		return new LoadDataStage(table.newLoadDataEncoder(), table.newLoadDataEncoder(), encoding);
+	}
+
+	/**
+	 * write rows of buffer using multi-row inserts or, if stage is given, start
+	 * encoding them while writing previously encoded rows with loadQuery
+	 */
+	private void executeInserts(BulkStatements bulk, Statement load, String loadQuery,
+			@CheckForNull LoadDataStage stage, List<Operation> buffer) throws SQLException, InterruptedException {
+		if (stage == null || loadQuery == null) {
+			executeBulk(bulk, buffer, false, true, "insert");
+			return;
+		}
+
+		try {
+			if (!buffer.isEmpty()) {
+				executeLoad(load, loadQuery, stage.encode(buffer));
+			}
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * write rows still being encoded by stage
+	 */
+	private void flushLoad(Statement load, String loadQuery, @CheckForNull LoadDataStage stage) throws SQLException,
+			InterruptedException {
+		if (stage != null && loadQuery != null) {
+			executeLoad(load, loadQuery, stage.flush());
+		}
+	}
+
+	/**
+	 * LOAD DATA LOCAL turns errors like duplicate keys or failed conversions
+	 * into warnings, hence the batch fails if rows are missing or any warning
+	 * occurred
+	 */
+	private void executeLoad(Statement load, String loadQuery, @CheckForNull LoadDataEncoder encoded)
 			throws SQLException {
+		if (encoded == null) {
+			return;
+		}
+		// stream is read and closed by the next execution
+		load.setLocalInfileInputStream(encoded.toInputStream());
+		int inserts = load.executeUpdate(loadQuery);
+		SQLWarning warning = load.getWarnings();
+
+		if (inserts != encoded.getRows() || warning != null) {
+			throw new SQLException("load data inserted " + inserts + " of " + encoded.getRows() + " rows into "
+					+ _table.getName() + (warning != null ? " with warnings: " + warnings(warning) : ""), warning);
+		} else if (log.isDebugEnabled()) {
+			log.debug("load data inserted " + inserts + " rows (" + encoded.length() + " bytes) into "
+					+ _table.getName());
+		}
+	}
 
+	/**
+	 * @return messages of the first warnings
+	 */
+	private static String warnings(SQLWarning warning) {
+		StringBuilder buf = new StringBuilder();
+		int count = 0;
+		for (SQLWarning w = warning; w != null; w = w.getNextWarning()) {
+			if (count++ < 3) {
+				buf.append(count > 1 ? ", " : "").append(w.getMessage());
+			}
+		}
+		if (count > 3) {
+			buf.append(" and ").append(count - 3).append(" more");
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * execute multi-row statements for all rows of buffer
+	 * 
+	 * @param keys
+	 *            true to bind keys only, as for keyed deletes
+	 * @param exact
+	 *            true if each row is expected to affect exactly one row
+	 */
+	private void executeBulk(BulkStatements bulk, List<Operation> buffer, boolean keys, boolean exact, String type)
+			throws SQLException {
 		try {
-			if (buffer.size() != _bulkSize) {
-				// fallback to batch
-				for (Insert i : buffer) {
-					_table.insert(batch, i.getValues());
-					batch.addBatch();
-					batch.clearParameters();
-				}
-				executeBatch(batch, buffer.size());
-			} else {
-				// real bulk
-				int bulkPosition = 0;
-				for (Insert i : buffer) {
-					_table.insert(bulk, i.getValues(), bulkPosition++);
+			int offset = 0;
+			while (offset < buffer.size()) {
+				int rows = bulk.rows(buffer, offset);
+				PreparedStatement ps = bulk.statement(rows);
+				for (int i = 0; i < rows; i++) {
+					Object[] values = buffer.get(offset + i).getValues();
+					if (keys) {
+						_key.delete(ps, values, i);
+					} else {
+						_table.insert(ps, values, i);
+					}
 				}
 
-				int inserts = bulk.executeUpdate();
-				bulk.clearParameters();
+				long start = System.nanoTime();
+				int affected = ps.executeUpdate();
+				bulk.executed(rows, System.nanoTime() - start);
+				ps.clearParameters();
+				offset += rows;
 
-				if (inserts != buffer.size()) {
-					log.warn("bulk insert only inserted " + inserts + " of " + buffer.size() + " rows into "
+				if (exact && affected != rows) {
+					log.warn("bulk " + type + " only affected " + affected + " of " + rows + " rows of "
 							+ _table.getName());
 				} else if (log.isDebugEnabled()) {
-					log.debug("bulk insert inserted " + inserts + " rows into " + _table.getName());
+					log.debug("bulk " + type + " of " + rows + " rows affected " + affected + " rows of "
+							+ _table.getName());
 				}
 			}
 		} finally {
 			buffer.clear();
 		}
 	}
-}
\ No newline at end of file
+
+	private void executeDeleteRange(PreparedStatement ps, DeleteRange range) throws SQLException {
+		if (ps == null) {
+			throw new IllegalStateException("range deletes not supported for " + _table.getName());
+		}
+		_key.deleteRange(ps, range.getValues(), range.getTo());
+		int deletes = ps.executeUpdate();
+		ps.clearParameters();
+
+		if (deletes != range.getRows()) {
+			log.warn("range delete deleted " + deletes + " instead of " + range.getRows() + " rows from "
+					+ _table.getName());
+		} else if (log.isDebugEnabled()) {
+			log.debug("range delete deleted " + deletes + " rows from " + _table.getName());
+		}
+	}
+
+	private static final class ShapedUpdate {
+		private final PreparedStatement _statement;
+		private int _added;
+
+		private ShapedUpdate(PreparedStatement statement) {
+			_statement = statement;
+		}
+	}
+}
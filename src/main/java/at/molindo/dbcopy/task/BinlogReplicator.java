@@ -0,0 +1,603 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.dbutils.handlers.ArrayHandler;
+
+import at.molindo.dbcopy.Column;
+import at.molindo.dbcopy.Database;
+import at.molindo.dbcopy.Table;
+import at.molindo.dbcopy.operation.Delete;
+import at.molindo.dbcopy.operation.Operation;
+import at.molindo.dbcopy.operation.Upsert;
+import at.molindo.dbcopy.source.BinlogPosition;
+import at.molindo.dbcopy.source.DefaultConnectionPool;
+import at.molindo.dbcopy.util.DbcopyProperties;
+import at.molindo.dbcopy.util.DbcopyProperties.DbProperties;
+import at.molindo.dbcopy.util.Utils;
+import at.molindo.utils.data.StringUtils;
+
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventHeader;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+
+/**
+ * A {@link Runnable} that keeps tables in sync after they were compared by
+ * tailing the source binlog from the {@link BinlogPosition} of the source
+ * snapshot. Requires row based binlogs with full row images.
+ * 
+ * Only keys are taken from row events. Changed rows are read from source
+ * again and written as {@link Delete}s followed by {@link Upsert}s, so that
+ * replaying changes is idempotent. Runs until {@link #stop()} is called.
+ */
+public class BinlogReplicator implements Runnable {
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BinlogReplicator.class);
+
+	private final BinlogPosition _position;
+	private final Database _target;
+	private final boolean _dryRun;
+	private final int _serverId;
+	private final int _flushInterval;
+	private final DbProperties _sourceProps;
+	private final DbcopyProperties _props;
+	private final String _schema;
+
+	/**
+	 * replicated tables of source by name
+	 */
+	private final Map<String, Table> _tables;
+
+	/**
+	 * table names of tables in {@link #_tables} by binlog table id
+	 */
+	private final Map<Long, String> _tableIds = new HashMap<Long, String>();
+
+	/**
+	 * changes not yet written to target by table name
+	 */
+	private final Map<String, Changes> _changes = new LinkedHashMap<String, Changes>();
+
+	private final CountDownLatch _stopped = new CountDownLatch(1);
+
+	private BinaryLogClient _client;
+	private DefaultConnectionPool _fetchPool;
+	private DefaultConnectionPool _writePool;
+	private ReplicationWriter _writer;
+	private TimeZone _timeZone;
+	private RuntimeException _failure;
+	private long _events;
+
+	public BinlogReplicator(BinlogPosition position, Database source, Set<String> tables, Database target,
+			DbcopyProperties props) {
+		if (position == null) {
+			throw new NullPointerException("position");
+		}
+		if (source == null) {
+			throw new NullPointerException("source");
+		}
+		if (tables == null) {
+			throw new NullPointerException("tables");
+		}
+		if (target == null) {
+			throw new NullPointerException("target");
+		}
+		if (props == null) {
+			throw new NullPointerException("props");
+		}
+		_position = position;
+		_target = target;
+		_dryRun = props.isDryRun();
+		_serverId = props.getBinlogServerId();
+		_flushInterval = Math.max(1, props.getBinlogFlushInterval());
+		_sourceProps = props.getSource();
+		_props = props;
+		_schema = StringUtils.afterFirst(jdbcUri(_sourceProps.getJdbcUrl()).getPath(), "/");
+
+		_tables = new HashMap<String, Table>();
+		for (String name : tables) {
+			Table table = source.getTable(name);
+			if (!Arrays.equals(table.getColumnNames(), target.getTable(name).getColumnNames())) {
+				log.warn("not replicating table " + name + " as columns of source and target differ");
+			} else {
+				_tables.put(name, table);
+			}
+		}
+	}
+
+	private static URI jdbcUri(String jdbcUrl) {
+		try {
+			return new URI(StringUtils.afterFirst(jdbcUrl, "jdbc:"));
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("can't parse jdbc url " + jdbcUrl, e);
+		}
+	}
+
+	@Override
+	public void run() {
+		URI uri = jdbcUri(_sourceProps.getJdbcUrl());
+
+		BinaryLogClient client = new BinaryLogClient(uri.getHost(), uri.getPort() < 0 ? 3306 : uri.getPort(),
+				_sourceProps.getUser(), _sourceProps.getPassword());
+		client.setServerId(_serverId);
+		client.setBinlogFilename(_position.getFile());
+		client.setBinlogPosition(_position.getPosition());
+		client.registerEventListener(new BinaryLogClient.EventListener() {
+
+			@Override
+			public void onEvent(Event event) {
+				BinlogReplicator.this.onEvent(event);
+			}
+		});
+
+		ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+		try {
+			synchronized (this) {
+				_client = client;
+				_fetchPool = new DefaultConnectionPool("binlog", _sourceProps.getJdbcUrl(), _sourceProps.getUser(),
+						_sourceProps.getPassword(), 1);
+				Connection c = _fetchPool.getConnection();
+				try {
+					_timeZone = sessionTimeZone(c);
+				} finally {
+					c.close();
+				}
+				if (!_dryRun) {
+					// statements are prepared once per table on this connection
+					DbProperties targetProps = _props.getTarget();
+					_writePool = new DefaultConnectionPool("binlog-target", targetProps.getJdbcUrl(),
+							targetProps.getUser(), targetProps.getPassword(), 1);
+					_writer = new ReplicationWriter(_writePool.getConnection());
+				}
+			}
+
+			flusher.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					flushSafely();
+				}
+			}, _flushInterval, _flushInterval, TimeUnit.MILLISECONDS);
+
+			log.info("replicating " + _tables.keySet() + " from binlog position " + _position);
+
+			// blocks until disconnected
+			client.connect();
+
+			synchronized (this) {
+				if (_failure != null) {
+					throw _failure;
+				}
+				flush();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("reading binlog failed", e);
+		} catch (SQLException e) {
+			throw new RuntimeException("preparing replication failed", e);
+		} finally {
+			flusher.shutdownNow();
+			synchronized (this) {
+				if (_fetchPool != null) {
+					_fetchPool.close();
+				}
+				if (_writer != null) {
+					_writer.close();
+				}
+				if (_writePool != null) {
+					_writePool.close();
+				}
+			}
+			log.info("stopped replication after " + _events + " row events at " + client.getBinlogFilename() + ":"
+					+ client.getBinlogPosition());
+			_stopped.countDown();
+		}
+	}
+
+	/**
+	 * disconnect from binlog and wait until pending changes are written
+	 */
+	public void stop() {
+		disconnect();
+		try {
+			_stopped.await();
+		} catch (InterruptedException e) {
+			log.warn("waiting for replication to stop interrupted");
+		}
+	}
+
+	private void disconnect() {
+		BinaryLogClient client;
+		synchronized (this) {
+			client = _client;
+		}
+		if (client != null) {
+			try {
+				client.disconnect();
+			} catch (IOException e) {
+				log.warn("failed to disconnect from binlog", e);
+			}
+		}
+	}
+
+	private synchronized void onEvent(Event event) {
+		if (_failure != null) {
+			return;
+		}
+
+		try {
+			EventHeader header = event.getHeader();
+			EventType type = header.getEventType();
+
+			if (type == EventType.TABLE_MAP) {
+				TableMapEventData data = event.getData();
+				if (_schema.equals(data.getDatabase()) && _tables.containsKey(data.getTable())) {
+					_tableIds.put(data.getTableId(), data.getTable());
+				} else {
+					_tableIds.remove(data.getTableId());
+				}
+			} else if (type == EventType.WRITE_ROWS || type == EventType.EXT_WRITE_ROWS) {
+				WriteRowsEventData data = event.getData();
+				Changes changes = changes(data.getTableId());
+				if (changes != null) {
+					for (Serializable[] row : data.getRows()) {
+						changes.upsert(row);
+					}
+				}
+			} else if (type == EventType.UPDATE_ROWS || type == EventType.EXT_UPDATE_ROWS) {
+				UpdateRowsEventData data = event.getData();
+				Changes changes = changes(data.getTableId());
+				if (changes != null) {
+					for (Map.Entry<Serializable[], Serializable[]> rows : data.getRows()) {
+						changes.update(rows.getKey(), rows.getValue());
+					}
+				}
+			} else if (type == EventType.DELETE_ROWS || type == EventType.EXT_DELETE_ROWS) {
+				DeleteRowsEventData data = event.getData();
+				Changes changes = changes(data.getTableId());
+				if (changes != null) {
+					for (Serializable[] row : data.getRows()) {
+						changes.delete(row);
+					}
+				}
+			} else if (type == EventType.XID && isFlushRequired()) {
+				// end of transaction
+				flush();
+			}
+		} catch (RuntimeException e) {
+			// exceptions of listeners are only logged by the client
+			log.error("replication failed, disconnecting", e);
+			_failure = e;
+			disconnect();
+		}
+	}
+
+	private Changes changes(long tableId) {
+		String name = _tableIds.get(tableId);
+		if (name == null) {
+			return null;
+		}
+		_events++;
+		Changes changes = _changes.get(name);
+		if (changes == null) {
+			_changes.put(name, changes = new Changes(_tables.get(name).getPrimaryKey(), _timeZone));
+		}
+		return changes;
+	}
+
+	private boolean isFlushRequired() {
+		for (Changes changes : _changes.values()) {
+			if (changes.size() >= changes.getKey().getBulkSize()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized void flushSafely() {
+		if (_failure != null) {
+			return;
+		}
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			log.error("replication failed, disconnecting", e);
+			_failure = e;
+			disconnect();
+		}
+	}
+
+	private synchronized void flush() {
+		if (_changes.isEmpty()) {
+			return;
+		}
+
+		Connection c = _fetchPool.getConnection();
+		try {
+			for (Changes changes : _changes.values()) {
+				Table.UniqueKey key = changes.getKey();
+				Table target = _target.getTable(key.getTable().getName());
+
+				// deletes first, rows deleted and inserted again are upserted
+				List<Operation> deletes = new ArrayList<Operation>(changes.getDeletes().size());
+				for (Object[] k : changes.getDeletes()) {
+					deletes.add(new Delete(key.toRow(k)));
+				}
+
+				// read current rows from source
+				List<Operation> upserts = new ArrayList<Operation>(changes.getUpserts().size());
+				List<Object[]> keys = new ArrayList<Object[]>(changes.getUpserts());
+				for (int i = 0; i < keys.size(); i += key.getBulkSize()) {
+					List<Object[]> chunk = keys.subList(i, Math.min(keys.size(), i + key.getBulkSize()));
+					for (Object[] row : key.fetch(chunk).apply(c)) {
+						upserts.add(new Upsert(row));
+					}
+				}
+				write(target, deletes, upserts);
+
+				if (log.isDebugEnabled()) {
+					log.debug("replicated " + deletes.size() + " deletes and " + upserts.size() + " upserts to "
+							+ target.getName());
+				}
+			}
+			_changes.clear();
+		} catch (SQLException e) {
+			throw new RuntimeException("reading changed rows from source failed", e);
+		} finally {
+			try {
+				c.close();
+			} catch (SQLException e) {
+				log.warn("failed to release connection", e);
+			}
+		}
+	}
+
+	private void write(Table target, List<Operation> deletes, List<Operation> upserts) {
+		if (_dryRun) {
+			log.info("dry run, not replicating " + deletes.size() + " deletes and " + upserts.size() + " upserts to "
+					+ target.getName());
+			return;
+		}
+		try {
+			_writer.write(target, deletes, upserts);
+		} catch (SQLException e) {
+			throw new RuntimeException("writing changes to " + target.getName() + " failed", e);
+		}
+	}
+
+	/**
+	 * @return time zone of the source session, used to convert TIMESTAMP
+	 *         values of row events
+	 */
+	private static TimeZone sessionTimeZone(Connection c) throws SQLException {
+		Object[] row = Utils.execute(c, "SELECT IF(@@session.time_zone = 'SYSTEM', @@system_time_zone, "
+				+ "@@session.time_zone), TIMESTAMPDIFF(SECOND, UTC_TIMESTAMP(), NOW())", new ArrayHandler());
+		return timeZone((String) row[0], ((Number) row[1]).intValue());
+	}
+
+	/**
+	 * @param offset
+	 *            current offset in seconds, used for unknown zones
+	 */
+	static TimeZone timeZone(String zone, int offset) {
+		if (zone.matches("[+-]\\d{1,2}:\\d{2}")) {
+			return TimeZone.getTimeZone("GMT" + zone);
+		}
+		TimeZone tz = TimeZone.getTimeZone(zone);
+		if ("GMT".equals(tz.getID()) && !"GMT".equalsIgnoreCase(zone) && !"UTC".equalsIgnoreCase(zone)) {
+			// unknown zone, e.g. an abbreviation like CEST
+			log.warn("unknown source time zone " + zone + ", using current offset of " + offset + "s");
+			return new SimpleTimeZone(offset * 1000, zone);
+		}
+		return tz;
+	}
+
+	/**
+	 * keys of changed rows of a table. Key values are converted from binlog
+	 * values to values as read using JDBC.
+	 */
+	static final class Changes {
+
+		private static final BigInteger UNSIGNED_LONG = BigInteger.ONE.shiftLeft(64);
+
+		private final Table.UniqueKey _key;
+		private final Column[] _keyColumns;
+		private final int _columns;
+		private final TimeZone _timeZone;
+
+		private final Set<Key> _deletes = new LinkedHashSet<Key>();
+		private final Set<Key> _upserts = new LinkedHashSet<Key>();
+
+		/**
+		 * @param timeZone
+		 *            time zone of the source session
+		 */
+		Changes(Table.UniqueKey key, TimeZone timeZone) {
+			if (key == null) {
+				throw new NullPointerException("key");
+			}
+			if (timeZone == null) {
+				throw new NullPointerException("timeZone");
+			}
+			_key = key;
+			_keyColumns = key.getKeyColumns().toArray(new Column[0]);
+			_columns = key.getTable().getColumnNames().length;
+			_timeZone = timeZone;
+		}
+
+		public Table.UniqueKey getKey() {
+			return _key;
+		}
+
+		public int size() {
+			return _deletes.size() + _upserts.size();
+		}
+
+		public void upsert(Object[] row) {
+			_upserts.add(key(row));
+		}
+
+		public void update(Object[] before, Object[] after) {
+			Key beforeKey = key(before);
+			Key afterKey = key(after);
+			if (!beforeKey.equals(afterKey)) {
+				_deletes.add(beforeKey);
+			}
+			_upserts.add(afterKey);
+		}
+
+		public void delete(Object[] row) {
+			_deletes.add(key(row));
+		}
+
+		public List<Object[]> getDeletes() {
+			return toArrays(_deletes);
+		}
+
+		public List<Object[]> getUpserts() {
+			return toArrays(_upserts);
+		}
+
+		private Key key(Object[] row) {
+			if (row.length != _columns) {
+				throw new IllegalStateException("unexpected number of columns for " + _key.getTable().getName()
+						+ ", binlog_row_image=FULL required");
+			}
+			Object[] values = _key.toKey(row);
+			for (int i = 0; i < values.length; i++) {
+				values[i] = convert(_keyColumns[i], values[i]);
+			}
+			return new Key(values);
+		}
+
+		/**
+		 * @return value of a binlog row event as read using JDBC
+		 */
+		Object convert(Column column, Object value) {
+			if (value == null || column.getDataType() == null) {
+				return value;
+			}
+			switch (column.getDataType()) {
+			case "tinyint":
+				return unsigned(column, value, 8);
+			case "smallint":
+				return unsigned(column, value, 16);
+			case "mediumint":
+				return unsigned(column, value, 24);
+			case "int":
+			case "integer":
+				return unsigned(column, value, 32);
+			case "bigint":
+				long l = ((Number) value).longValue();
+				return column.isUnsigned() && l < 0 ? BigInteger.valueOf(l).add(UNSIGNED_LONG) : (Object) l;
+			case "datetime":
+				// binlog client uses local time zone, as JDBC
+				return new Timestamp(((java.util.Date) value).getTime());
+			case "date":
+				return new java.sql.Date(((java.util.Date) value).getTime());
+			case "time":
+				return new Time(((java.util.Date) value).getTime());
+			case "timestamp":
+				return timestamp((java.util.Date) value);
+			default:
+				return value;
+			}
+		}
+
+		private static Object unsigned(Column column, Object value, int bits) {
+			long l = ((Number) value).longValue();
+			return column.isUnsigned() && l < 0 ? l + (1L << bits) : l;
+		}
+
+		/**
+		 * @return timestamp as read using JDBC, i.e. the local time of the
+		 *         source session in the local time zone
+		 */
+		private Timestamp timestamp(java.util.Date value) {
+			Calendar session = Calendar.getInstance(_timeZone);
+			session.setTime(value);
+			Calendar local = Calendar.getInstance();
+			local.clear();
+			local.set(session.get(Calendar.YEAR), session.get(Calendar.MONTH), session.get(Calendar.DAY_OF_MONTH),
+					session.get(Calendar.HOUR_OF_DAY), session.get(Calendar.MINUTE), session.get(Calendar.SECOND));
+			Timestamp ts = new Timestamp(local.getTimeInMillis());
+			ts.setNanos(value instanceof Timestamp ? ((Timestamp) value).getNanos() : session
+					.get(Calendar.MILLISECOND) * 1000000);
+			return ts;
+		}
+
+		private static List<Object[]> toArrays(Set<Key> keys) {
+			List<Object[]> arrays = new ArrayList<Object[]>(keys.size());
+			for (Key key : keys) {
+				arrays.add(key._values.clone());
+			}
+			return arrays;
+		}
+	}
+
+	/**
+	 * key values, equal by content (including byte[] values)
+	 */
+	private static final class Key {
+
+		private final Object[] _values;
+		private final int _hash;
+
+		private Key(Object[] values) {
+			_values = values;
+			_hash = Arrays.deepHashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.deepEquals(_values, ((Key) obj)._values);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import at.molindo.dbcopy.operation.Operation;
+import at.molindo.dbcopy.util.Utils;
+import at.molindo.utils.data.Function;
+
+/**
+ * Multi-row statements for row counts that are powers of two, prepared on
+ * demand. The number of rows per statement is limited by the estimated size
+ * of rows and max_allowed_packet and adapted to the latency of executed
+ * statements. Rows not filling a statement are written with statements of
+ * smaller sizes instead of row by row.
+ */
+final class BulkStatements {
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BulkStatements.class);
+
+	/**
+	 * statements faster than half of this are grown, slower than twice of
+	 * this shrunk
+	 */
+	private static final long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+	private final Connection _connection;
+	private final Function<Integer, String> _queries;
+	private final int _maxSize;
+	private final long _maxBytes;
+	private final Map<Integer, PreparedStatement> _statements = new HashMap<Integer, PreparedStatement>();
+
+	private int _size;
+
+	/**
+	 * @param queries
+	 *            query for a number of rows
+	 * @param size
+	 *            initial number of rows per statement, may grow up to four
+	 *            times of it
+	 * @param maxBytes
+	 *            maximum estimated size of statements in bytes
+	 */
+	BulkStatements(Connection connection, Function<Integer, String> queries, int size, long maxBytes) {
+		if (connection == null) {
+			throw new NullPointerException("connection");
+		}
+		if (queries == null) {
+			throw new NullPointerException("queries");
+		}
+		if (size < 1) {
+			throw new IllegalArgumentException("size must be >= 1, was " + size);
+		}
+		_connection = connection;
+		_queries = queries;
+		_size = Integer.highestOneBit(size);
+		_maxSize = _size * 4;
+		_maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return current number of rows per statement
+	 */
+	public int getSize() {
+		return _size;
+	}
+
+	/**
+	 * @return number of rows for the next statement, a power of two not
+	 *         larger than {@link #getSize()} and the remaining rows of buffer
+	 *         starting at offset, halved until the estimated size fits
+	 */
+	public int rows(List<Operation> buffer, int offset) {
+		int rows = Integer.highestOneBit(Math.min(_size, buffer.size() - offset));
+		while (rows > 1) {
+			long bytes = 0;
+			for (int i = offset; i < offset + rows && bytes <= _maxBytes; i++) {
+				bytes += estimateBytes(buffer.get(i).getValues());
+			}
+			if (bytes <= _maxBytes) {
+				break;
+			}
+			rows >>>= 1;
+		}
+		return rows;
+	}
+
+	public PreparedStatement statement(int rows) throws SQLException {
+		PreparedStatement ps = _statements.get(rows);
+		if (ps == null) {
+			ps = _connection.prepareStatement(_queries.apply(rows));
+			_statements.put(rows, ps);
+		}
+		return ps;
+	}
+
+	/**
+	 * adapt size to the latency of an executed statement
+	 */
+	public void executed(int rows, long nanos) {
+		if (nanos > 2 * TARGET_NANOS && rows > 1) {
+			_size = Math.min(_size, rows) >>> 1;
+			if (log.isDebugEnabled()) {
+				log.debug("statement of " + rows + " rows took " + TimeUnit.NANOSECONDS.toMillis(nanos)
+						+ "ms, reduced size to " + _size);
+			}
+		} else if (nanos < TARGET_NANOS / 2 && rows == _size && _size < _maxSize) {
+			_size <<= 1;
+		}
+	}
+
+	public void close() {
+		for (PreparedStatement ps : _statements.values()) {
+			Utils.close(ps);
+		}
+		_statements.clear();
+	}
+
+	/**
+	 * @return estimated size of values as SQL literals, not considering
+	 *         escaped characters
+	 */
+	static long estimateBytes(Object[] values) {
+		long bytes = 3;
+		for (Object value : values) {
+			if (value instanceof String) {
+				// up to 3 bytes per char in UTF-8
+				bytes += 3L * ((String) value).length() + 3;
+			} else if (value instanceof byte[]) {
+				bytes += 2L * ((byte[]) value).length + 10;
+			} else {
+				// numbers, temporals and NULL
+				bytes += 32;
+			}
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import at.molindo.dbcopy.util.MerkleTree;
+
+/**
+ * strategies used by {@link CompareTableTask} to find differences between
+ * source and target
+ */
+public enum CompareMode {
+
+	/**
+	 * stream and compare all rows of source and target
+	 */
+	FULL,
+
+	/**
+	 * compare checksums of key ranges first, only stream rows of ranges with
+	 * different checksums. Ranges are bisected down to a minimum size.
+	 */
+	CHECKSUM,
+
+	/**
+	 * stream and compare keys and a digest of all columns, fetch rows by key
+	 * from source for inserts and updates
+	 */
+	DIGEST,
+
+	/**
+	 * stream all columns and a digest from source, but only keys and a digest
+	 * from target
+	 */
+	TARGET_DIGEST,
+
+	/**
+	 * compare checksums of source key ranges to a {@link MerkleTree} stored
+	 * by the previous run, compare only changed ranges like
+	 * {@link #CHECKSUM}. Assumes that target is only modified by dbcopy.
+	 */
+	MERKLE,
+
+	/**
+	 * only compare rows starting at the last key(s) of target, for insert
+	 * only tables with increasing keys (e.g. logs or events)
+	 */
+	TAIL;
+
+}
@@ -15,29 +15,59 @@
  */
 package at.molindo.dbcopy.task;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 
+import javax.annotation.CheckForNull;
+
 import at.molindo.dbcopy.Column;
 import at.molindo.dbcopy.Database;
 import at.molindo.dbcopy.Insertable;
+import at.molindo.dbcopy.KeyRange;
 import at.molindo.dbcopy.Selectable;
+import at.molindo.dbcopy.Table;
+import at.molindo.dbcopy.Table.UniqueKey;
 import at.molindo.dbcopy.operation.Delete;
+import at.molindo.dbcopy.operation.DeleteRange;
 import at.molindo.dbcopy.operation.Insert;
 import at.molindo.dbcopy.operation.Operation;
 import at.molindo.dbcopy.operation.Update;
+import at.molindo.dbcopy.operation.Upsert;
 import at.molindo.dbcopy.util.DbcopyProperties;
 import at.molindo.dbcopy.util.Equals;
+import at.molindo.dbcopy.util.MerkleTree;
+import at.molindo.dbcopy.util.NamedThreadFactory;
 import at.molindo.dbcopy.util.NaturalRowComparator;
+import at.molindo.dbcopy.util.RowBatch;
+import at.molindo.dbcopy.util.SpscBatchQueue;
 import at.molindo.dbcopy.util.Utils;
 
 /**
  * A {@link Runnable} implementation that compares rows retrieved in natural
  * order from a {@link Selectable} and an {@link Insertable} (using
  * {@link SelectReader}s) and submits {@link Operation}s to a {@link DryWriter}
- * (dryRun=true) or a {@link BatchWriter} (dryRun=false)
+ * (dryRun=true) or a {@link BatchWriter} (dryRun=false). In
+ * {@link CompareMode#CHECKSUM}, only rows of key ranges with different
+ * checksums are retrieved. In {@link CompareMode#DIGEST} and
+ * {@link CompareMode#TARGET_DIGEST}, rows are compared by key and a digest of
+ * all columns. In {@link CompareMode#TAIL}, only rows from the last rows of
+ * target on are compared. If a watermark column is configured, only rows changed since
+ * the previous run are upserted and deletes are found by comparing keys.
  */
 public class CompareTableTask implements Runnable {
 
@@ -46,16 +76,62 @@ public class CompareTableTask implements Runnable {
 	private static final boolean CHECK_ORDER = true;
 	private static final boolean FAIL_ON_WRONG_ORDER = true;
 
+	/**
+	 * number of rows fetched by key at once
+	 */
+	private static final int FETCH_SIZE = 1000;
+
+	/**
+	 * minimum number of consecutive deleted rows deleted by range
+	 */
+	private static final int MIN_RANGE_ROWS = 32;
+
 	private final Selectable _sourceSelectable;
 	private final Insertable _targetInsertable;
+	private final UniqueKey _sourceKey;
+	private final UniqueKey _targetKey;
+	private final KeyRange _range;
 	private final Database _source;
 	private final Database _target;
 	private final boolean _dryRun;
+	private final File _stateDirectory;
+	private final CompareMode _mode;
+	private final int _chunkSize;
+	private final int _minChunkSize;
+	private final String _watermarkColumn;
+	private final int _tailOverlap;
+	private final boolean _weightStrings;
+	private final boolean _rawStrings;
+	private final int _writers;
+	private final boolean _loadData;
+	private final UpsertMode _upsertMode;
+	private final boolean _changedColumns;
+	private final int _stagingWindow;
+	private final int _commitRows;
+	private final int _commitInterval;
 
+	private final DbcopyProperties _props;
 	private final String _description;
 
+	private ForkJoinPool _comparePool;
+
+	private long _start;
+	private long _rows;
+	private long _writes;
+	private long _skipped;
+
 	public CompareTableTask(String tableName, Database source, Database target, DbcopyProperties props) {
-		this(source.getTable(tableName), tableName, source, target, props);
+		this(tableName, KeyRange.ALL, source, target, props);
+	}
+
+	/**
+	 * compare a range of a table only
+	 *
+	 * @see Table.UniqueKey#ranges(long)
+	 */
+	public CompareTableTask(String tableName, KeyRange range, Database source, Database target,
+			DbcopyProperties props) {
+		this(source.getTable(tableName), target.getTable(tableName), range, source, target, props);
 	}
 
 	public CompareTableTask(Selectable sourceSelectable, String targetTableName, Database source, Database target,
@@ -65,6 +141,11 @@ public class CompareTableTask implements Runnable {
 
 	public CompareTableTask(Selectable sourceSelectable, Insertable targetInsertable, Database source, Database target,
 			DbcopyProperties props) {
+		this(sourceSelectable, targetInsertable, KeyRange.ALL, source, target, props);
+	}
+
+	public CompareTableTask(Selectable sourceSelectable, Insertable targetInsertable, KeyRange range, Database source,
+			Database target, DbcopyProperties props) {
 
 		if (sourceSelectable == null) {
 			throw new NullPointerException("sourceSelectable");
@@ -72,6 +153,9 @@ public class CompareTableTask implements Runnable {
 		if (targetInsertable == null) {
 			throw new NullPointerException("targetInsertable");
 		}
+		if (range == null) {
+			throw new NullPointerException("range");
+		}
 		if (source == null) {
 			throw new NullPointerException("source");
 		}
@@ -84,112 +168,768 @@ public class CompareTableTask implements Runnable {
 
 		_sourceSelectable = sourceSelectable;
 		_targetInsertable = targetInsertable;
+		_sourceKey = toKey(sourceSelectable);
+		_targetKey = toKey(targetInsertable);
+		_range = range;
+
+		if (_range.isBounded() && (_sourceKey == null || _targetKey == null)) {
+			throw new IllegalArgumentException("ranges only supported for tables");
+		}
 		_source = source;
 		_target = target;
 		_dryRun = props.isDryRun();
+		_props = props;
+		_stateDirectory = props.getStateDirectory();
+
+		if (_sourceSelectable instanceof Table) {
+			String name = _sourceSelectable.getName();
+			_mode = props.getTableTasks().getCompareMode(name);
+			_chunkSize = props.getTableTasks().getChecksumChunkSize(name);
+			_minChunkSize = Math.max(1, props.getTableTasks().getChecksumMinChunkSize(name));
+			_tailOverlap = Math.max(0, props.getTableTasks().getTailOverlap(name));
+			_weightStrings = props.getTableTasks().isWeightStrings(name);
+			_rawStrings = props.getTableTasks().isRawStrings(name);
+			_writers = writers(name, props);
+			_loadData = props.getTableTasks().isLoadData(name);
+			_upsertMode = props.getTableTasks().getUpsertMode(name);
+			_changedColumns = props.getTableTasks().isUpdateChanged(name);
+			_stagingWindow = props.getTableTasks().getStagingWindow(name);
+			_commitRows = props.getTableTasks().getCommitRows(name);
+			_commitInterval = props.getTableTasks().getCommitInterval(name);
+			_watermarkColumn = props.getTableTasks().getWatermarkColumn(name);
+			if (_watermarkColumn != null
+					&& !Arrays.asList(((Table) _sourceSelectable).getColumnNames()).contains(_watermarkColumn)) {
+				throw new IllegalArgumentException("unknown watermark column " + _watermarkColumn + " for table "
+						+ name);
+			}
+		} else {
+			_mode = CompareMode.FULL;
+			_chunkSize = _minChunkSize = _tailOverlap = 0;
+			_watermarkColumn = null;
+			_weightStrings = _rawStrings = false;
+			_writers = 1;
+			_loadData = false;
+			_upsertMode = UpsertMode.NONE;
+			_changedColumns = false;
+			_stagingWindow = 0;
+			_commitRows = 0;
+			_commitInterval = 0;
+		}
 
 		// TODO improve description
-		_description = _sourceSelectable.getName() + " with " + _targetInsertable.getName();
+		_description = _sourceSelectable.getName() + " with " + _targetInsertable.getName()
+				+ (_range.isBounded() ? " in range " + _range : "");
+	}
+
+	/**
+	 * @param comparePool
+	 *            pool checking equality of rows matched by key, null to check
+	 *            equality on the thread comparing keys. The pool is shared
+	 *            with other tasks and not shut down by this task.
+	 * @return this
+	 * @see DbcopyProperties#getCompareParallelism()
+	 */
+	public CompareTableTask setComparePool(@CheckForNull ForkJoinPool comparePool) {
+		_comparePool = comparePool;
+		return this;
 	}
 
 	@Override
 	public void run() {
-		long start = System.currentTimeMillis();
+		_start = System.currentTimeMillis();
 		log.info("comparing " + _description);
 
-		// sourceQ contains rows from source
-		BlockingQueue<Object[]> sourceQ = new ArrayBlockingQueue<Object[]>(1000);
-		_source.execute(new SelectReader(_sourceSelectable, sourceQ));
+		// writeQ takes operations on target
+		SpscBatchQueue<Operation> writeQ = _props.newQueue(Operation.END);
+		int writers = _writers;
+		String[] collations = null;
+		if (writers > 1) {
+			collations = _targetKey == null ? null : collations(_targetKey);
+			if (collations == null || !OperationRouter.isRoutable(collations)) {
+				log.warn("using a single writer for " + _targetInsertable.getName()
+						+ ", keys can't be routed for their collations");
+				writers = 1;
+			}
+		}
+		List<Future<?>> writeFutures = new ArrayList<Future<?>>(writers + 1);
+		ExecutorService routing = null;
+		if (writers == 1) {
+			writeFutures.add(_target.submit(newWriter(writeQ)));
+		} else {
+			// route operations by key to writers on separate connections
+			List<SpscBatchQueue<Operation>> shards = new ArrayList<SpscBatchQueue<Operation>>(writers);
+			for (int i = 0; i < writers; i++) {
+				SpscBatchQueue<Operation> shard = _props.newQueue(Operation.END);
+				shards.add(shard);
+				writeFutures.add(_target.submit(newWriter(shard)));
+			}
+			routing = Executors.newSingleThreadExecutor(new NamedThreadFactory("router-"
+					+ _targetInsertable.getName() + "-"));
+			writeFutures.add(0, routing.submit(new OperationRouter(writeQ, shards, _targetInsertable
+					.getComparator().getIndexes(), collations)));
+		}
 
-		// targetQ contains rows from target
-		BlockingQueue<Object[]> targetQ = new ArrayBlockingQueue<Object[]>(1000);
-		_target.execute(new SelectReader(_targetInsertable, targetQ));
+		File watermarkFile = null;
+		Object watermark = null;
+		boolean completed = false;
+		try {
+			if (_watermarkColumn != null && !_range.isBounded() && isHashSupported("watermark")) {
+				watermarkFile = getStateFile(".watermark");
+				// rows of the snapshot are read later, so nothing gets lost
+				watermark = get(_source.submit(_sourceKey.max(_watermarkColumn)));
 
-		// writeQ takes operations on target
-		BlockingQueue<Operation> writeQ = new ArrayBlockingQueue<Operation>(1000);
-		Future<?> writeFuture = _target.submit(_dryRun ? new DryWriter(_targetInsertable, writeQ) : new BatchWriter(
-				_targetInsertable, writeQ));
+				String previous = readWatermark(watermarkFile);
+				if (previous != null) {
+					compareWatermark(previous, writeQ);
+				} else {
+					compare(writeQ);
+				}
+			} else {
+				compare(writeQ);
+			}
+			completed = true;
+		} catch (InterruptedException e) {
+			log.info("comparing " + _description + " interrupted");
+		} finally {
+			try {
+				writeQ.put(Operation.END);
+				for (Future<?> writeFuture : writeFutures) {
+					writeFuture.get();
+				}
+			} catch (InterruptedException e) {
+				completed = false;
+				log.info("signaling end to writer interrupted");
+			} catch (ExecutionException e) {
+				completed = false;
+				throw new RuntimeException("writer failed", e);
+			} finally {
+				if (routing != null) {
+					routing.shutdownNow();
+				}
+				if (_mode == CompareMode.MERKLE && _sourceKey != null) {
+					commitMerkleTree(getStateFile(".merkle"), completed && !_dryRun);
+				}
+				if (watermarkFile != null && watermark != null && completed && !_dryRun) {
+					writeWatermark(watermarkFile, watermark);
+				}
+			}
+		}
+
+		if (!completed) {
+			// report failure, e.g. to not store fingerprints of this table
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("comparing " + _description + " interrupted");
+		}
+
+		int perSecond = (int) (_rows / ((System.currentTimeMillis() - _start) / 1000.0));
+		log.info("finished comparing " + _rows + " rows (" + perSecond + " rows/second, " + _writes + " changes, "
+				+ _skipped + " rows skipped by checksum) from " + _description);
+	}
+
+	/**
+	 * @return number of writers for a table, limited by the target
+	 *         connections available to each concurrent task (one per writer
+	 *         and one for reading), as writers would otherwise wait for
+	 *         connections held by other tasks
+	 */
+	private static int writers(String table, DbcopyProperties props) {
+		int writers = Math.max(1, props.getTableTasks().getWriters(table));
+		// tasks run concurrently on a thread per source connection
+		int maxWriters = Math.max(1, props.getTarget().getPoolSize() / props.getSource().getPoolSize() - 1);
+		if (writers > maxWriters) {
+			log.warn("using " + maxWriters + " instead of " + writers + " writers for " + table
+					+ ", target pool too small for concurrent tasks");
+			return maxWriters;
+		}
+		return writers;
+	}
+
+	private AbstractConnectionRunnable newWriter(SpscBatchQueue<Operation> queue) {
+		return _dryRun ? new DryWriter(_targetInsertable, queue) : new BatchWriter(_targetInsertable, queue,
+				_loadData, _upsertMode, _stagingWindow, _commitRows, _commitInterval);
+	}
+
+	/**
+	 * compare according to {@link #_mode}
+	 */
+	private void compare(SpscBatchQueue<Operation> writeQ) throws InterruptedException {
+		if (_mode == CompareMode.CHECKSUM && isHashSupported(_mode)) {
+			compareChecksums(_sourceKey, _targetKey, _range, writeQ);
+		} else if (_mode == CompareMode.MERKLE && isHashSupported(_mode)) {
+			if (_range.isBounded()) {
+				log.warn("merkle trees not supported for ranges, comparing checksums of " + _description);
+				compareChecksums(_sourceKey, _targetKey, _range, writeQ);
+			} else {
+				compareMerkleTree(getStateFile(".merkle"), writeQ);
+			}
+		} else if (_mode == CompareMode.DIGEST && isHashSupported(_mode)) {
+			compareDigests(_range, false, writeQ);
+		} else if (_mode == CompareMode.TARGET_DIGEST && isHashSupported(_mode)) {
+			compareDigests(_range, true, writeQ);
+		} else if (_mode == CompareMode.TAIL && isHashSupported(_mode)) {
+			compareTail(writeQ);
+		} else if (_sourceKey != null && _targetKey != null) {
+			compare(_sourceKey, _targetKey, _range, writeQ);
+		} else {
+			compare(_sourceSelectable.getOrderedSelect(), new Object[0], _targetInsertable.getOrderedSelect(),
+					new Object[0], _targetInsertable.getComparator(), 0, writeQ);
+		}
+	}
+
+	/**
+	 * compare all rows of range, ordered by weight strings of collated key
+	 * columns if {@link #_weightStrings}
+	 */
+	private void compare(UniqueKey sourceKey, UniqueKey targetKey, KeyRange range, SpscBatchQueue<Operation> writeQ)
+			throws InterruptedException {
+		if (_weightStrings) {
+			compare(sourceKey.getOrderedSelect(range, true), sourceKey.getRangeParameters(range),
+					targetKey.getOrderedSelect(range, true), targetKey.getRangeParameters(range),
+					targetKey.getWeightComparator(), targetKey.getWeightCount(), writeQ);
+		} else {
+			compare(sourceKey.getOrderedSelect(range), sourceKey.getRangeParameters(range),
+					targetKey.getOrderedSelect(range), targetKey.getRangeParameters(range), targetKey.getComparator(),
+					0, writeQ);
+		}
+	}
+
+	/**
+	 * compare rows from an ordered source and target query
+	 * 
+	 * @param comp
+	 *            comparator for rows of both queries
+	 * @param weights
+	 *            number of trailing columns only used for ordering
+	 */
+	private void compare(String sourceQuery, Object[] sourceParams, String targetQuery, Object[] targetParams,
+			NaturalRowComparator comp, int weights, SpscBatchQueue<Operation> writeQ) throws InterruptedException {
+
+		int batchSize = _props.getQueueBatchSize();
+
+		// sourceQ contains batches of rows from source
+		SpscBatchQueue<RowBatch> sourceQ = _props.newBatchQueue();
+		_source.execute(new BatchSelectReader(sourceQuery, sourceParams, batchSize, sourceQ, _rawStrings));
+
+		// targetQ contains batches of rows from target
+		SpscBatchQueue<RowBatch> targetQ = _props.newBatchQueue();
+		_target.execute(new BatchSelectReader(targetQuery, targetParams, batchSize, targetQ, _rawStrings));
 
 		// comparators for both tables must be equal!
-		NaturalRowComparator comp = _targetInsertable.getComparator();
-		int rows = 0;
-		int writes = 0;
-		try {
-			Object[] headerT = targetQ.take();
-			Object[] headerS = sourceQ.take();
+		RowCursor t = new RowCursor(targetQ, comp, weights, writeQ);
+		RowCursor s = new RowCursor(sourceQ, comp, weights, writeQ);
 
-			if (headerT.length != headerS.length) {
-				throw new IllegalStateException("result sets of different size when comparing " + _description
-						+ " (target=" + headerT.length + ", source=" + headerS.length + ")");
+		Column[] headerT = t.getColumns();
+		Column[] headerS = s.getColumns();
+
+		if (headerT.length != headerS.length) {
+			throw new IllegalStateException("result sets of different size when comparing " + _description
+					+ " (target=" + headerT.length + ", source=" + headerS.length + ")");
+		}
+
+		for (int i = 0; i < headerT.length; i++) {
+			Column th = headerT[i];
+			Column sh = headerS[i];
+
+			if (!th.getName().equals(sh.getName())) {
+				throw new IllegalStateException("column labels of source and target colunn must be equal when comparing "
+						+ _description + " (target=" + th.getName() + ", source=" + sh.getName() + ")");
 			}
+		}
+
+		int width = headerT.length - weights;
+		Equals e = new Equals(Arrays.copyOf(headerT, width), Arrays.copyOf(headerS, width));
+
+		// check equality on other threads if configured
+		EqualityStage stage = _comparePool != null ? new EqualityStage(_comparePool, e, width, batchSize,
+				2 * _comparePool.getParallelism(), writeQ, _changedColumns) : null;
 
-			for (int i = 0; i < headerT.length; i++) {
-				Column th = (Column) headerT[i];
-				Column sh = (Column) headerS[i];
+		// delete runs of rows by range if the database orders keys like comp
+		DeleteRun run = _targetKey != null && _targetKey.isIntegral() ? new DeleteRun(stage, writeQ, width,
+				_targetInsertable.getBulkSize()) : null;
 
-				if (!th.getName().equals(sh.getName())) {
-					throw new IllegalStateException(
-							"column labels of source and target colunn must be equal when comparing " + _description
-									+ " (target=" + th.getName() + ", source=" + sh.getName() + ")");
+		t.next();
+		s.next();
+
+		while (!t.isEnd() || !s.isEnd()) {
+			_rows++;
+			int cmp;
+			if (t.isEnd()) {
+				cmp = 1;
+			} else if (s.isEnd()) {
+				cmp = -1;
+			} else {
+				cmp = comp.compare(t.getBatch(), t.getRow(), s.getBatch(), s.getRow());
+			}
+			if (cmp >= 0 && run != null) {
+				// source row ends run of deleted rows
+				_writes += run.flush();
+			}
+			if (cmp == 0) {
+				if (stage != null) {
+					_writes += stage.match(t.getBatch(), t.getRow(), s.getBatch(), s.getRow());
+				} else if (!e.equals(t.getBatch(), t.getRow(), s.getBatch(), s.getRow())) {
+					// update
+					writeQ.put(new Update(s.getValues(), null, _changedColumns ? e.changed(t.getBatch(), t.getRow(),
+							s.getBatch(), s.getRow()) : null));
+					_writes++;
 				}
+				t.next();
+				s.next();
+			} else if (cmp < 0) {
+
+				// t not in source
+				if (run != null) {
+					_writes += run.add(t.getBatch(), t.getRow());
+				} else if (stage != null) {
+					_writes += stage.delete(t.getBatch(), t.getRow());
+				} else {
+					writeQ.put(new Delete(t.getValues()));
+					_writes++;
+				}
+
+				t.next();
+			} else if (cmp > 0) {
+
+				// s not in target
+				if (stage != null) {
+					_writes += stage.insert(s.getBatch(), s.getRow());
+				} else {
+					writeQ.put(new Insert(s.getValues()));
+					_writes++;
+				}
+
+				s.next();
+			}
+			if (_rows % 100000 == 0 && log.isDebugEnabled()) {
+				int perSecond = (int) (_rows / ((System.currentTimeMillis() - _start) / 1000.0));
+				log.debug("compared " + _rows + " rows (" + perSecond + " rows/second, " + _writes + " changes) from "
+						+ _description);
 			}
+		}
+
+		if (run != null) {
+			_writes += run.flush();
+		}
+		if (stage != null) {
+			_writes += stage.flush();
+		}
+	}
 
-			Equals e = new Equals(headerT, headerS);
+	/**
+	 * compare rows by key and a digest of all columns computed by MySQL. Rows
+	 * for inserts and updates are either read from source along with the
+	 * digest (fullSource=true) or fetched by key afterwards.
+	 */
+	private void compareDigests(KeyRange range, boolean fullSource, SpscBatchQueue<Operation> writeQ)
+			throws InterruptedException {
 
-			Object[] t = targetQ.take();
-			Object[] s = sourceQ.take();
+		// sourceQ contains keys and digests (and all columns) from source
+		SpscBatchQueue<Object[]> sourceQ = _props.newQueue(Utils.END);
+		_source.execute(new SelectReader(fullSource ? _sourceKey.getDigestRowSelect(range) : _sourceKey
+				.getDigestSelect(range), _sourceKey.getRangeParameters(range), sourceQ));
 
-			while (t != Utils.END || s != Utils.END) {
-				rows++;
-				int cmp = comp.compare(t, s);
-				if (cmp == 0) {
-					if (!e.equals(t, s)) {
-						// update
-						writeQ.put(new Update(s, t));
-						writes++;
-					}
-					t = take(targetQ, t, comp);
-					s = take(sourceQ, s, comp);
-				} else if (cmp < 0) {
+		// targetQ contains keys and digests from target
+		SpscBatchQueue<Object[]> targetQ = _props.newQueue(Utils.END);
+		_target.execute(new SelectReader(_targetKey.getDigestSelect(range), _targetKey.getRangeParameters(range),
+				targetQ));
 
-					// t not in source
-					writeQ.put(new Delete(t));
-					writes++;
+		// comparators for both tables must be equal!
+		NaturalRowComparator comp = _targetKey.getKeyComparator();
+		int digest = _targetKey.getKeyColumnNames().length;
+
+		// headers are equal as key columns are equal
+		targetQ.take();
+		sourceQ.take();
 
-					t = take(targetQ, t, comp);
-				} else if (cmp > 0) {
+		List<Object[]> inserts = new ArrayList<Object[]>();
+		List<Object[]> updates = new ArrayList<Object[]>();
 
-					// s not in target
-					writeQ.put(new Insert(s));
-					writes++;
+		Object[] t = targetQ.take();
+		Object[] s = sourceQ.take();
 
-					s = take(sourceQ, s, comp);
+		while (t != Utils.END || s != Utils.END) {
+			_rows++;
+			int cmp = comp.compare(t, s);
+			if (cmp == 0) {
+				if (!s[digest].equals(t[digest])) {
+					// update
+					if (fullSource) {
+						writeQ.put(new Update(Arrays.copyOfRange(s, digest + 1, s.length), null));
+						_writes++;
+					} else {
+						updates.add(Arrays.copyOf(s, digest));
+						fetchFull(updates, Update.class, writeQ);
+					}
 				}
-				if (rows % 100000 == 0 && log.isDebugEnabled()) {
-					int perSecond = (int) (rows / ((System.currentTimeMillis() - start) / 1000.0));
-					log.debug("compared " + rows + " rows (" + perSecond + " rows/second, " + writes
-							+ " changes) from " + _description);
+				t = take(targetQ, t, comp);
+				s = take(sourceQ, s, comp);
+			} else if (cmp < 0) {
+
+				// t not in source
+				writeQ.put(new Delete(_targetKey.toRow(Arrays.copyOf(t, digest))));
+				_writes++;
+
+				t = take(targetQ, t, comp);
+			} else if (cmp > 0) {
+
+				// s not in target
+				if (fullSource) {
+					writeQ.put(new Insert(Arrays.copyOfRange(s, digest + 1, s.length)));
+					_writes++;
+				} else {
+					inserts.add(Arrays.copyOf(s, digest));
+					fetchFull(inserts, Insert.class, writeQ);
 				}
+
+				s = take(sourceQ, s, comp);
 			}
-		} catch (InterruptedException e) {
-			log.info("comparing " + _description + " interrupted");
-		} finally {
+			if (_rows % 100000 == 0 && log.isDebugEnabled()) {
+				int perSecond = (int) (_rows / ((System.currentTimeMillis() - _start) / 1000.0));
+				log.debug("compared " + _rows + " digests (" + perSecond + " rows/second, " + _writes
+						+ " changes) from " + _description);
+			}
+		}
+
+		// fetch rows for remaining changed keys
+		fetch(inserts, Insert.class, writeQ);
+		fetch(updates, Update.class, writeQ);
+	}
+
+	/**
+	 * compare rows starting at the key {@link #_tailOverlap} rows before the
+	 * last key of target. Rows after the last key are inserted, the overlap is
+	 * verified.
+	 */
+	private void compareTail(SpscBatchQueue<Operation> writeQ) throws InterruptedException {
+		Object[] last = get(_target.submit(_targetKey.last(_range, _tailOverlap)), writeQ);
+		KeyRange range = last == null ? _range : new KeyRange(last, _range.getTo());
+
+		if (log.isDebugEnabled()) {
+			log.debug("comparing tail " + range + " of " + _description);
+		}
+
+		compare(_sourceKey, _targetKey, range, writeQ);
+	}
+
+	/**
+	 * upsert all rows with a watermark column value greater or equal to the
+	 * value of the previous run and compare keys of all rows to find deletes
+	 */
+	private void compareWatermark(String since, SpscBatchQueue<Operation> writeQ) throws InterruptedException {
+		if (log.isDebugEnabled()) {
+			log.debug("reading rows with " + _watermarkColumn + " >= " + since + " from " + _description);
+		}
+
+		SpscBatchQueue<Object[]> sourceQ = _props.newQueue(Utils.END);
+		_source.execute(new SelectReader(_sourceKey.getChangedSelect(_watermarkColumn), new Object[] { since },
+				sourceQ));
+
+		// header
+		sourceQ.take();
+
+		Object[] s;
+		while (true) {
+			if (!sourceQ.isAvailable()) {
+				// publish pending operations while waiting for rows
+				writeQ.flush();
+			}
+			if ((s = sourceQ.take()) == Utils.END) {
+				break;
+			}
+			_rows++;
+			writeQ.put(new Upsert(s));
+			_writes++;
+		}
+
+		compareKeys(writeQ);
+	}
+
+	/**
+	 * compare keys only to delete rows missing in source. Rows missing in
+	 * target (e.g. if the watermark column wasn't updated) are upserted.
+	 */
+	private void compareKeys(SpscBatchQueue<Operation> writeQ) throws InterruptedException {
+		SpscBatchQueue<Object[]> sourceQ = _props.newQueue(Utils.END);
+		_source.execute(new SelectReader(_sourceKey.getKeySelect(_range), _sourceKey.getRangeParameters(_range),
+				sourceQ));
+
+		SpscBatchQueue<Object[]> targetQ = _props.newQueue(Utils.END);
+		_target.execute(new SelectReader(_targetKey.getKeySelect(_range), _targetKey.getRangeParameters(_range),
+				targetQ));
+
+		NaturalRowComparator comp = _targetKey.getKeyComparator();
+
+		// headers are equal as key columns are equal
+		targetQ.take();
+		sourceQ.take();
+
+		List<Object[]> missing = new ArrayList<Object[]>();
+
+		Object[] t = targetQ.take();
+		Object[] s = sourceQ.take();
+
+		while (t != Utils.END || s != Utils.END) {
+			int cmp = comp.compare(t, s);
+			if (cmp == 0) {
+				t = take(targetQ, t, comp);
+				s = take(sourceQ, s, comp);
+			} else if (cmp < 0) {
+				// t not in source
+				writeQ.put(new Delete(_targetKey.toRow(t)));
+				_writes++;
+
+				t = take(targetQ, t, comp);
+			} else {
+				// s not in target
+				missing.add(s);
+				fetchFull(missing, Upsert.class, writeQ);
+				s = take(sourceQ, s, comp);
+			}
+		}
+
+		// fetch rows for remaining missing keys
+		fetch(missing, Upsert.class, writeQ);
+	}
+
+	@CheckForNull
+	private String readWatermark(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		Properties props = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
 			try {
-				writeQ.put(Operation.END);
-				writeFuture.get();
-			} catch (InterruptedException e) {
-				log.info("signaling end to writer interrupted");
-			} catch (ExecutionException e) {
-				throw new RuntimeException("writer failed", e);
+				props.load(in);
+			} finally {
+				Utils.close(in);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("failed to read watermark " + file.getAbsolutePath(), e);
+		}
+
+		if (!_watermarkColumn.equals(props.getProperty("column"))) {
+			log.info("watermark column changed, comparing all rows of " + _description);
+			return null;
+		}
+		return props.getProperty("value");
+	}
+
+	private void writeWatermark(File file, Object watermark) {
+		Properties props = new Properties();
+		props.setProperty("column", _watermarkColumn);
+		props.setProperty("value", watermark.toString());
+
+		File tmp = getTemporaryFile(file);
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				props.store(out, _description);
+			} finally {
+				Utils.close(out);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("failed to write watermark " + tmp.getAbsolutePath(), e);
+		}
+		if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+			log.warn("failed to replace watermark " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * compare checksums of all ranges stored in a {@link MerkleTree} by the
+	 * previous run to current checksums on source. Only ranges that changed
+	 * since are compared with target. The new tree is only kept after all
+	 * changes were written successfully.
+	 *
+	 * @see #commitMerkleTree(File, boolean)
+	 */
+	private void compareMerkleTree(File file, SpscBatchQueue<Operation> writeQ) throws InterruptedException {
+		try {
+			MerkleTree previous = file.exists() ? MerkleTree.open(file) : null;
+			try {
+				List<KeyRange> leaves = previous != null ? previous.getLeaves() : get(_source.submit(_sourceKey
+						.chunks(KeyRange.ALL, _chunkSize)), writeQ);
+
+				List<long[]> checksums = get(_source.submit(_sourceKey.checksums(leaves)), writeQ);
+				long[] hashes = new long[checksums.size()];
+				for (int i = 0; i < hashes.length; i++) {
+					hashes[i] = MerkleTree.leafHash(checksums.get(i)[0], checksums.get(i)[1]);
+				}
+
+				MerkleTree current = MerkleTree.create(getTemporaryFile(file), leaves, hashes);
+				try {
+					List<KeyRange> changed;
+					if (previous == null) {
+						changed = leaves;
+					} else {
+						changed = new ArrayList<KeyRange>();
+						Set<Integer> diff = new HashSet<Integer>(current.diff(previous));
+						for (int i = 0; i < leaves.size(); i++) {
+							if (diff.contains(i)) {
+								changed.add(leaves.get(i));
+							} else {
+								_skipped += checksums.get(i)[0];
+							}
+						}
+					}
+
+					if (log.isDebugEnabled()) {
+						log.debug("comparing " + changed.size() + " of " + leaves.size() + " merkle tree ranges from "
+								+ _description);
+					}
+
+					if (!changed.isEmpty()) {
+						compareChecksums(_sourceKey, _targetKey, changed, writeQ);
+					}
+				} finally {
+					current.close();
+				}
+			} finally {
+				if (previous != null) {
+					previous.close();
+				}
 			}
+		} catch (IOException e) {
+			throw new RuntimeException("failed to read or write merkle tree " + file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * replace the previous {@link MerkleTree} with the current one if commit
+	 * is true, delete the current one otherwise
+	 */
+	private void commitMerkleTree(File file, boolean commit) {
+		File tmp = getTemporaryFile(file);
+		if (!tmp.exists()) {
+			return;
 		}
+		if (commit) {
+			if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+				log.warn("failed to replace merkle tree " + file.getAbsolutePath());
+			}
+		} else if (!tmp.delete()) {
+			log.warn("failed to delete merkle tree " + tmp.getAbsolutePath());
+		}
+	}
+
+	private File getStateFile(String suffix) {
+		return new File(_stateDirectory, _sourceKey.getTable().getName() + suffix);
+	}
+
+	private static File getTemporaryFile(File file) {
+		return new File(file.getPath() + ".tmp");
+	}
+
+	/**
+	 * fetch rows of collected keys once there are {@link #FETCH_SIZE} keys and
+	 * clear them, keeping keys bounded while streaming
+	 */
+	private void fetchFull(List<Object[]> keys, Class<? extends Operation> type, SpscBatchQueue<Operation> writeQ)
+			throws InterruptedException {
+		if (keys.size() >= FETCH_SIZE) {
+			fetch(keys, type, writeQ);
+			keys.clear();
+		}
+	}
+
+	/**
+	 * fetch rows by key from source and submit them as {@link Insert}s,
+	 * {@link Update}s or {@link Upsert}s. Rows are fetched on separate fetch
+	 * connections, as all other connections may be busy streaming rows.
+	 */
+	private void fetch(List<Object[]> keys, Class<? extends Operation> type, SpscBatchQueue<Operation> writeQ)
+			throws InterruptedException {
+		for (int i = 0; i < keys.size(); i += FETCH_SIZE) {
+			List<Object[]> batch = keys.subList(i, Math.min(keys.size(), i + FETCH_SIZE));
+			for (Object[] row : get(_source.submitFetch(_sourceKey.fetch(batch)), writeQ)) {
+				if (type == Update.class) {
+					writeQ.put(new Update(row, null));
+				} else if (type == Upsert.class) {
+					writeQ.put(new Upsert(row));
+				} else {
+					writeQ.put(new Insert(row));
+				}
+				_writes++;
+			}
+		}
+	}
+
+	/**
+	 * @return true if source and target are tables with equal columns, as
+	 *         required to compare them using checksums, digests or watermarks
+	 */
+	private boolean isHashSupported(Object feature) {
+		if (_sourceKey == null || _targetKey == null) {
+			log.warn(feature + " only supported for tables, falling back to full compare of " + _description);
+			return false;
+		} else if (!Arrays.equals(_sourceKey.getKeyColumnNames(), _targetKey.getKeyColumnNames())
+				|| !Arrays.equals(_sourceKey.getTable().getColumnNames(), _targetKey.getTable().getColumnNames())) {
+			log.warn(feature + " requires equal columns, falling back to full compare of " + _description);
+			return false;
+		} else {
+			return true;
+		}
+	}
+
+	/**
+	 * split range into chunks of {@link #_chunkSize} rows and compare their
+	 * checksums
+	 */
+	private void compareChecksums(UniqueKey sourceKey, UniqueKey targetKey, KeyRange range,
+			SpscBatchQueue<Operation> writeQ) throws InterruptedException {
+		List<KeyRange> chunks = get(_source.submit(sourceKey.chunks(range, _chunkSize)), writeQ);
+		if (log.isDebugEnabled()) {
+			log.debug("comparing checksums of " + chunks.size() + " chunks from " + _description);
+		}
+		compareChecksums(sourceKey, targetKey, chunks, writeQ);
+	}
+
+	/**
+	 * compare checksums of ranges, only stream rows of ranges that are
+	 * smaller than {@link #_minChunkSize} or bisect them otherwise
+	 */
+	private void compareChecksums(UniqueKey sourceKey, UniqueKey targetKey, List<KeyRange> ranges,
+			SpscBatchQueue<Operation> writeQ) throws InterruptedException {
+
+		Future<List<long[]>> sourceSums = _source.submit(sourceKey.checksums(ranges));
+		Future<List<long[]>> targetSums = _target.submit(targetKey.checksums(ranges));
+
+		List<long[]> sourceList = get(sourceSums, writeQ);
+		List<long[]> targetList = get(targetSums, writeQ);
+
+		for (int i = 0; i < ranges.size(); i++) {
+			KeyRange range = ranges.get(i);
+			long[] s = sourceList.get(i);
+			long[] t = targetList.get(i);
 
-		int perSecond = (int) (rows / ((System.currentTimeMillis() - start) / 1000.0));
-		log.info("finished comparing " + rows + " rows (" + perSecond + " rows/second, " + writes + " changes) from "
-				+ _description);
+			if (Arrays.equals(s, t)) {
+				_skipped += s[0];
+				continue;
+			}
+
+			long count = Math.max(s[0], t[0]);
+			if (count <= _minChunkSize) {
+				if (log.isTraceEnabled()) {
+					log.trace("comparing rows of chunk " + range + " from " + _description);
+				}
+				compare(sourceKey, targetKey, range, writeQ);
+			} else {
+				// bisect at median of larger side
+				UniqueKey key = s[0] >= t[0] ? sourceKey : targetKey;
+				Database db = s[0] >= t[0] ? _source : _target;
+
+				Object[] median = get(db.submit(key.boundary(range, count / 2)), writeQ);
+				if (log.isTraceEnabled()) {
+					log.trace("bisecting chunk " + range + " of " + count + " rows at " + Arrays.toString(median)
+							+ " from " + _description);
+				}
+				compareChecksums(sourceKey, targetKey, Arrays.asList(range.split(median)), writeQ);
+			}
+		}
 	}
 
-	private Object[] take(BlockingQueue<Object[]> queue, Object[] prev, NaturalRowComparator comp)
+	private Object[] take(SpscBatchQueue<Object[]> queue, Object[] prev, NaturalRowComparator comp)
 			throws InterruptedException {
 		Object[] next = queue.take();
 		if (CHECK_ORDER) {
@@ -207,4 +947,215 @@ public class CompareTableTask implements Runnable {
 		return next;
 	}
 
+	/**
+	 * iterates over rows of {@link RowBatch}es taken from a queue, checking
+	 * their order
+	 */
+	private final class RowCursor {
+
+		private final SpscBatchQueue<RowBatch> _queue;
+		private final SpscBatchQueue<Operation> _writeQ;
+		private final NaturalRowComparator _comp;
+		private final Column[] _columns;
+		private final int _width;
+
+		private RowBatch _batch;
+		private int _row;
+
+		/**
+		 * takes the first batch
+		 * 
+		 * @param writeQ
+		 *            flushed before waiting for the next batch
+		 */
+		private RowCursor(SpscBatchQueue<RowBatch> queue, NaturalRowComparator comp, int weights,
+				SpscBatchQueue<Operation> writeQ) throws InterruptedException {
+			_queue = queue;
+			_writeQ = writeQ;
+			_comp = comp;
+			_batch = queue.take();
+			if (_batch == RowBatch.END) {
+				throw new IllegalStateException("missing first batch");
+			}
+			_columns = _batch.getColumns();
+			_width = _columns.length - weights;
+			_row = -1;
+		}
+
+		public Column[] getColumns() {
+			return _columns;
+		}
+
+		/**
+		 * advance to next row
+		 */
+		public void next() throws InterruptedException {
+			RowBatch prevBatch = _batch;
+			int prevRow = _row;
+
+			_row++;
+			while (_batch != RowBatch.END && _row >= _batch.size()) {
+				if (!_queue.isAvailable()) {
+					// publish pending operations while waiting for rows
+					_writeQ.flush();
+				}
+				_batch = _queue.take();
+				_row = 0;
+			}
+
+			if (_batch == RowBatch.END) {
+				return;
+			}
+
+			if (CHECK_ORDER && prevRow >= 0) {
+				int cmp = _comp.compare(prevBatch, prevRow, _batch, _row);
+				if (cmp >= 0) {
+					String msg = "unexpected order of rows for tabels " + _sourceSelectable.getName() + " and "
+							+ _targetInsertable.getName() + " (" + cmp + ")";
+					if (FAIL_ON_WRONG_ORDER) {
+						throw new RuntimeException(msg);
+					} else {
+						log.warn(msg);
+					}
+				}
+			}
+		}
+
+		public boolean isEnd() {
+			return _batch == RowBatch.END;
+		}
+
+		public RowBatch getBatch() {
+			return _batch;
+		}
+
+		public int getRow() {
+			return _row;
+		}
+
+		/**
+		 * @return boxed values of current row without weight strings
+		 */
+		public Object[] getValues() {
+			Object[] row = _batch.getRow(_row);
+			return row.length == _width ? row : Arrays.copyOf(row, _width);
+		}
+	}
+
+	/**
+	 * coalesces runs of deleted target rows, i.e. without source rows in
+	 * between, into {@link DeleteRange} operations of up to maxRows rows. Runs
+	 * shorter than {@link #MIN_RANGE_ROWS} are deleted by key.
+	 */
+	private static final class DeleteRun {
+
+		private final EqualityStage _stage;
+		private final SpscBatchQueue<Operation> _queue;
+		private final int _width;
+		private final int _maxRows;
+
+		private final RowBatch[] _batches = new RowBatch[MIN_RANGE_ROWS];
+		private final int[] _rows = new int[MIN_RANGE_ROWS];
+		private RowBatch _lastBatch;
+		private int _lastRow;
+		private int _count;
+
+		private DeleteRun(@CheckForNull EqualityStage stage, SpscBatchQueue<Operation> queue, int width, int maxRows) {
+			_stage = stage;
+			_queue = queue;
+			_width = width;
+			_maxRows = Math.max(MIN_RANGE_ROWS, maxRows);
+		}
+
+		/**
+		 * @return number of changed rows
+		 */
+		public int add(RowBatch batch, int row) throws InterruptedException {
+			if (_count < MIN_RANGE_ROWS) {
+				_batches[_count] = batch;
+				_rows[_count] = row;
+			}
+			_lastBatch = batch;
+			_lastRow = row;
+			return ++_count == _maxRows ? flush() : 0;
+		}
+
+		/**
+		 * end the current run
+		 * 
+		 * @return number of changed rows
+		 */
+		public int flush() throws InterruptedException {
+			int writes = 0;
+			if (_count < MIN_RANGE_ROWS) {
+				for (int i = 0; i < _count; i++) {
+					if (_stage != null) {
+						writes += _stage.delete(_batches[i], _rows[i]);
+					} else {
+						_queue.put(new Delete(values(_batches[i], _rows[i])));
+						writes++;
+					}
+				}
+			} else {
+				if (_stage != null) {
+					// keep order of operations
+					writes += _stage.flush();
+				}
+				_queue.put(new DeleteRange(values(_batches[0], _rows[0]), values(_lastBatch, _lastRow), _count));
+				writes += _count;
+			}
+			Arrays.fill(_batches, null);
+			_lastBatch = null;
+			_count = 0;
+			return writes;
+		}
+
+		private Object[] values(RowBatch batch, int row) {
+			Object[] values = batch.getRow(row);
+			return values.length == _width ? values : Arrays.copyOf(values, _width);
+		}
+	}
+
+	@CheckForNull
+	private static UniqueKey toKey(Selectable selectable) {
+		if (selectable instanceof Table) {
+			return ((Table) selectable).getPrimaryKey();
+		} else if (selectable instanceof UniqueKey) {
+			return (UniqueKey) selectable;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * @return collations of key columns, null for binary or non-string columns
+	 */
+	private static String[] collations(UniqueKey key) {
+		List<Column> columns = key.getKeyColumns();
+		String[] collations = new String[columns.size()];
+		for (int i = 0; i < collations.length; i++) {
+			collations[i] = columns.get(i).getCollation();
+		}
+		return collations;
+	}
+
+	/**
+	 * get result of future, flushing writeQ before waiting
+	 */
+	private static <T> T get(Future<T> future, SpscBatchQueue<Operation> writeQ) throws InterruptedException {
+		if (!future.isDone()) {
+			// publish pending operations while waiting
+			writeQ.flush();
+		}
+		return get(future);
+	}
+
+	private static <T> T get(Future<T> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("query failed", e.getCause());
+		}
+	}
+
 }
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+
+import at.molindo.dbcopy.util.SqlFunction;
+
+/**
+ * A {@link Callable} that applies a {@link SqlFunction} to the
+ * {@link Connection} assigned by a {@link ConnectionExecutorService}.
+ */
+public class ConnectionCallable<T> implements Callable<T>, ConnectionRunnable {
+
+	private final SqlFunction<T> _function;
+
+	private Connection _connection;
+
+	public ConnectionCallable(SqlFunction<T> function) {
+		if (function == null) {
+			throw new NullPointerException("function");
+		}
+		_function = function;
+	}
+
+	@Override
+	public final void setConnection(Connection c) {
+		if (_connection != null) {
+			throw new IllegalStateException("connection already set");
+		}
+		_connection = c;
+	}
+
+	@Override
+	public final Connection unsetConnection() {
+		if (_connection == null) {
+			throw new IllegalStateException("no connection set");
+		}
+		Connection c = _connection;
+		_connection = null;
+		return c;
+	}
+
+	@Override
+	public T call() throws SQLException {
+		if (_connection == null) {
+			throw new IllegalStateException("no connection set");
+		}
+		return _function.apply(_connection);
+	}
+
+	@Override
+	public void run() {
+		try {
+			call();
+		} catch (SQLException e) {
+			throw new RuntimeException("function failed", e);
+		}
+	}
+}
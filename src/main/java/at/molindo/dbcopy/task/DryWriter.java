@@ -18,17 +18,19 @@ package at.molindo.dbcopy.task;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Arrays;
-import java.util.concurrent.BlockingQueue;
 
 import at.molindo.dbcopy.Insertable;
 import at.molindo.dbcopy.operation.Delete;
+import at.molindo.dbcopy.operation.DeleteRange;
 import at.molindo.dbcopy.operation.Insert;
 import at.molindo.dbcopy.operation.Operation;
 import at.molindo.dbcopy.operation.Update;
+import at.molindo.dbcopy.operation.Upsert;
+import at.molindo.dbcopy.util.SpscBatchQueue;
 import at.molindo.dbcopy.util.Utils;
 
 /**
- * A {@link Runnable} that writes entries from a {@link BlockingQueue} to the
+ * A {@link Runnable} that writes entries from a {@link SpscBatchQueue} to the
  * log until it receives {@link Utils#END}.
  */
 public class DryWriter extends AbstractConnectionRunnable {
@@ -36,9 +38,9 @@ public class DryWriter extends AbstractConnectionRunnable {
 	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DryWriter.class);
 
 	private final Insertable _table;
-	private final BlockingQueue<Operation> _queue;
+	private final SpscBatchQueue<Operation> _queue;
 
-	public DryWriter(Insertable table, BlockingQueue<Operation> queue) {
+	public DryWriter(Insertable table, SpscBatchQueue<Operation> queue) {
 		if (table == null) {
 			throw new NullPointerException("table");
 		}
@@ -57,11 +59,12 @@ public class DryWriter extends AbstractConnectionRunnable {
 			Object[] values = new Object[indexes.length];
 
 			Operation op;
-			int inserts = 0, updates = 0, deletes = 0;
+			int inserts = 0, updates = 0, deletes = 0, upserts = 0;
 
 			String insert = "Insert " + _table.getName() + " ";
 			String update = "Update " + _table.getName() + " ";
 			String delete = "Delete " + _table.getName() + " ";
+			String upsert = "Upsert " + _table.getName() + " ";
 
 			while ((op = _queue.take()) != Operation.END) {
 
@@ -82,15 +85,32 @@ public class DryWriter extends AbstractConnectionRunnable {
 					if (log.isDebugEnabled()) {
 						log.debug(update + Arrays.toString(values));
 					}
+				} else if (op instanceof Upsert) {
+					upserts++;
+					if (log.isDebugEnabled()) {
+						log.debug(upsert + Arrays.toString(values));
+					}
 				} else if (op instanceof Delete) {
 					deletes++;
 					if (log.isDebugEnabled()) {
 						log.debug(delete + Arrays.toString(values));
 					}
+				} else if (op instanceof DeleteRange) {
+					DeleteRange range = (DeleteRange) op;
+					deletes += range.getRows();
+					if (log.isDebugEnabled()) {
+						Object[] to = range.getTo();
+						Object[] toValues = new Object[indexes.length];
+						for (int i = 0; i < toValues.length; i++) {
+							toValues[i] = to[indexes[i]];
+						}
+						log.debug(delete + Arrays.toString(values) + " to " + Arrays.toString(toValues) + " ("
+								+ range.getRows() + " rows)");
+					}
 				}
 			}
 			log.info("finished dry writing with " + inserts + " inserts, " + updates + " updates, " + deletes
-					+ " deletes");
+					+ " deletes, " + upserts + " upserts");
 		} catch (InterruptedException e) {
 			log.warn("batch writer interrupted", e);
 		}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import at.molindo.dbcopy.operation.Delete;
+import at.molindo.dbcopy.operation.Insert;
+import at.molindo.dbcopy.operation.Operation;
+import at.molindo.dbcopy.operation.Update;
+import at.molindo.dbcopy.util.Equals;
+import at.molindo.dbcopy.util.RowBatch;
+import at.molindo.dbcopy.util.SpscBatchQueue;
+
+/**
+ * Checks equality of rows matched by key on a {@link ForkJoinPool} and passes
+ * resulting operations to a queue in order of keys. Rows are collected in
+ * chunks, at most maxPending chunks are processed concurrently.
+ */
+final class EqualityStage {
+
+	private static final int INSERT = 0;
+	private static final int DELETE = 1;
+	private static final int MATCH = 2;
+
+	/**
+	 * maximum number of rows per {@link ForkJoinTask}
+	 */
+	private static final int THRESHOLD = 64;
+
+	private final ForkJoinPool _forkJoinPool;
+	private final Equals _equals;
+	private final int _width;
+	private final int _chunkSize;
+	private final int _maxPending;
+	private final SpscBatchQueue<Operation> _queue;
+	private final boolean _changedColumns;
+
+	private final ArrayDeque<ForkJoinTask<List<Operation>>> _pending = new ArrayDeque<ForkJoinTask<List<Operation>>>();
+	private Chunk _chunk;
+
+	EqualityStage(ForkJoinPool pool, Equals equals, int width, int chunkSize, int maxPending,
+			SpscBatchQueue<Operation> queue) {
+		this(pool, equals, width, chunkSize, maxPending, queue, false);
+	}
+
+	/**
+	 * @param width
+	 *            number of columns of written rows, i.e. without weight
+	 *            strings
+	 * @param changedColumns
+	 *            true to pass changed columns with updates
+	 */
+	EqualityStage(ForkJoinPool pool, Equals equals, int width, int chunkSize, int maxPending,
+			SpscBatchQueue<Operation> queue, boolean changedColumns) {
+		if (pool == null) {
+			throw new NullPointerException("pool");
+		}
+		if (equals == null) {
+			throw new NullPointerException("equals");
+		}
+		if (queue == null) {
+			throw new NullPointerException("queue");
+		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be >= 1, was " + chunkSize);
+		}
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("maxPending must be >= 1, was " + maxPending);
+		}
+		_forkJoinPool = pool;
+		_equals = equals;
+		_width = width;
+		_chunkSize = chunkSize;
+		_maxPending = maxPending;
+		_queue = queue;
+		_changedColumns = changedColumns;
+	}
+
+	/**
+	 * @return number of operations passed to queue
+	 */
+	public int insert(RowBatch source, int sourceRow) throws InterruptedException {
+		return add(INSERT, null, 0, source, sourceRow);
+	}
+
+	/**
+	 * @return number of operations passed to queue
+	 */
+	public int delete(RowBatch target, int targetRow) throws InterruptedException {
+		return add(DELETE, target, targetRow, null, 0);
+	}
+
+	/**
+	 * @return number of operations passed to queue
+	 */
+	public int match(RowBatch target, int targetRow, RowBatch source, int sourceRow) throws InterruptedException {
+		return add(MATCH, target, targetRow, source, sourceRow);
+	}
+
+	private int add(int kind, RowBatch target, int targetRow, RowBatch source, int sourceRow)
+			throws InterruptedException {
+		if (_chunk == null) {
+			_chunk = new Chunk(_chunkSize);
+		}
+		_chunk.add(kind, target, targetRow, source, sourceRow);
+		if (_chunk._size < _chunkSize) {
+			return 0;
+		}
+
+		_pending.add(_forkJoinPool.submit(new Compute(_chunk, 0, _chunk._size)));
+		_chunk = null;
+
+		return _pending.size() > _maxPending ? drain(_pending.poll()) : 0;
+	}
+
+	/**
+	 * pass operations of all rows to queue
+	 * 
+	 * @return number of operations passed to queue
+	 */
+	public int flush() throws InterruptedException {
+		if (_chunk != null) {
+			_pending.add(_forkJoinPool.submit(new Compute(_chunk, 0, _chunk._size)));
+			_chunk = null;
+		}
+		int writes = 0;
+		while (!_pending.isEmpty()) {
+			writes += drain(_pending.poll());
+		}
+		return writes;
+	}
+
+	private int drain(ForkJoinTask<List<Operation>> task) throws InterruptedException {
+		List<Operation> operations = task.join();
+		for (Operation operation : operations) {
+			_queue.put(operation);
+		}
+		return operations.size();
+	}
+
+	private Object[] values(RowBatch batch, int row) {
+		Object[] values = batch.getRow(row);
+		return values.length == _width ? values : Arrays.copyOf(values, _width);
+	}
+
+	private static final class Chunk {
+		private final int[] _kinds;
+		private final RowBatch[] _targets;
+		private final int[] _targetRows;
+		private final RowBatch[] _sources;
+		private final int[] _sourceRows;
+		private int _size;
+
+		private Chunk(int capacity) {
+			_kinds = new int[capacity];
+			_targets = new RowBatch[capacity];
+			_targetRows = new int[capacity];
+			_sources = new RowBatch[capacity];
+			_sourceRows = new int[capacity];
+		}
+
+		private void add(int kind, RowBatch target, int targetRow, RowBatch source, int sourceRow) {
+			_kinds[_size] = kind;
+			_targets[_size] = target;
+			_targetRows[_size] = targetRow;
+			_sources[_size] = source;
+			_sourceRows[_size] = sourceRow;
+			_size++;
+		}
+	}
+
+	/**
+	 * computes operations of a range of rows of a chunk, splitting large
+	 * ranges
+	 */
+	private final class Compute extends RecursiveTask<List<Operation>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Chunk _chunk;
+		private final int _from;
+		private final int _to;
+
+		private Compute(Chunk chunk, int from, int to) {
+			_chunk = chunk;
+			_from = from;
+			_to = to;
+		}
+
+		@Override
+		protected List<Operation> compute() {
+			if (_to - _from > THRESHOLD) {
+				int mid = (_from + _to) >>> 1;
+				Compute left = new Compute(_chunk, _from, mid);
+				left.fork();
+				List<Operation> right = new Compute(_chunk, mid, _to).compute();
+				List<Operation> operations = left.join();
+				operations.addAll(right);
+				return operations;
+			}
+
+			Chunk c = _chunk;
+			List<Operation> operations = new ArrayList<Operation>();
+			for (int i = _from; i < _to; i++) {
+				switch (c._kinds[i]) {
+				case INSERT:
+					operations.add(new Insert(values(c._sources[i], c._sourceRows[i])));
+					break;
+				case DELETE:
+					operations.add(new Delete(values(c._targets[i], c._targetRows[i])));
+					break;
+				default:
+					if (!_equals.equals(c._targets[i], c._targetRows[i], c._sources[i], c._sourceRows[i])) {
+						operations.add(new Update(values(c._sources[i], c._sourceRows[i]), null,
+								_changedColumns ? _equals.changed(c._targets[i], c._targetRows[i], c._sources[i],
+										c._sourceRows[i]) : null));
+					}
+				}
+			}
+			return operations;
+		}
+	}
+}
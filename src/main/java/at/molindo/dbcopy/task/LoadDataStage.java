@@ -0,0 +1,116 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.annotation.CheckForNull;
+
+import at.molindo.dbcopy.operation.Operation;
+import at.molindo.dbcopy.util.LoadDataEncoder;
+
+/**
+ * Double-buffered encoding of rows for "LOAD DATA LOCAL INFILE". Rows are
+ * encoded on an executor while the previously encoded rows are written by the
+ * calling thread, alternating between two reusable encoders.
+ */
+final class LoadDataStage {
+
+	private final LoadDataEncoder[] _encoders;
+	private final List<List<Object[]>> _rows;
+	private final ExecutorService _executor;
+
+	private int _next;
+	private Future<LoadDataEncoder> _pending;
+
+	LoadDataStage(LoadDataEncoder first, LoadDataEncoder second, ExecutorService executor) {
+		if (first == null) {
+			throw new NullPointerException("first");
+		}
+		if (second == null) {
+			throw new NullPointerException("second");
+		}
+		if (executor == null) {
+			throw new NullPointerException("executor");
+		}
+		_encoders = new LoadDataEncoder[] { first, second };
+		_rows = new ArrayList<List<Object[]>>(2);
+		_rows.add(new ArrayList<Object[]>());
+		_rows.add(new ArrayList<Object[]>());
+		_executor = executor;
+	}
+
+	/**
+	 * start encoding the values of buffer, which may be reused as soon as this
+	 * method returns
+	 * 
+	 * @return previously encoded rows to write before the next call, null if
+	 *         none
+	 */
+	@CheckForNull
+	public LoadDataEncoder encode(List<Operation> buffer) throws InterruptedException {
+		final LoadDataEncoder encoder = _encoders[_next];
+		final List<Object[]> rows = _rows.get(_next);
+		_next ^= 1;
+
+		rows.clear();
+		for (Operation op : buffer) {
+			rows.add(op.getValues());
+		}
+
+		LoadDataEncoder previous = flush();
+		_pending = _executor.submit(new Callable<LoadDataEncoder>() {
+
+			@Override
+			public LoadDataEncoder call() {
+				encoder.reset();
+				for (Object[] row : rows) {
+					encoder.add(row);
+				}
+				return encoder;
+			}
+		});
+		return previous;
+	}
+
+	/**
+	 * wait for rows being encoded
+	 * 
+	 * @return encoded rows not returned yet, null if none
+	 */
+	@CheckForNull
+	public LoadDataEncoder flush() throws InterruptedException {
+		if (_pending == null) {
+			return null;
+		}
+		try {
+			return _pending.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException("encoding rows failed", cause);
+		} finally {
+			_pending = null;
+		}
+	}
+}
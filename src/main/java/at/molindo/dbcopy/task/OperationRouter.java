@@ -0,0 +1,204 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import at.molindo.dbcopy.operation.Operation;
+import at.molindo.dbcopy.util.SpscBatchQueue;
+
+/**
+ * A {@link Runnable} that routes operations from a {@link SpscBatchQueue} to
+ * one of several queues by a hash of their key values, until it receives
+ * {@link Operation#END}, which is passed to all queues. Operations on the same
+ * key are hence kept in order.
+ * 
+ * String values are hashed in a form that is equal for all strings the
+ * collation of their column considers equal. This is only possible for some
+ * collations, see {@link #isRoutable(String[])}.
+ */
+public class OperationRouter implements Runnable {
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(OperationRouter.class);
+
+	private final SpscBatchQueue<Operation> _queue;
+	private final List<SpscBatchQueue<Operation>> _shards;
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+	private final int[] _indexes;
+	private final boolean[] _folded;
+
+	/**
+	 * @param indexes
+	 *            indexes of key columns in rows of operations
+	 */
+	public OperationRouter(SpscBatchQueue<Operation> queue, List<SpscBatchQueue<Operation>> shards, int[] indexes) {
+		this(queue, shards, indexes, new String[indexes.length]);
+	}
+
+	/**
+	 * @param indexes
+	 *            indexes of key columns in rows of operations
+	 * @param collations
+	 *            collations of key columns, null for binary or non-string
+	 *            columns
+	 * @see #isRoutable(String[])
+	 */
+	public OperationRouter(SpscBatchQueue<Operation> queue, List<SpscBatchQueue<Operation>> shards, int[] indexes,
+			String[] collations) {
+		if (queue == null) {
+			throw new NullPointerException("queue");
+		}
+		if (shards == null) {
+			throw new NullPointerException("shards");
+		}
+		if (shards.isEmpty()) {
+			throw new IllegalArgumentException("shards must not be empty");
+		}
+		if (indexes == null) {
+			throw new NullPointerException("indexes");
+		}
+		if (collations == null) {
+			throw new NullPointerException("collations");
+		}
+		if (indexes.length != collations.length) {
+			throw new IllegalArgumentException("indexes and collations must be of same length");
+		}
+		if (!isRoutable(collations)) {
+			throw new IllegalArgumentException("unsupported collations " + Arrays.asList(collations));
+		}
+		_queue = queue;
+		_shards = new ArrayList<SpscBatchQueue<Operation>>(shards);
+		_indexes = indexes.clone();
+		_folded = new boolean[collations.length];
+		for (int i = 0; i < collations.length; i++) {
+			_folded[i] = collations[i] != null && collations[i].endsWith("_general_ci");
+		}
+	}
+
+	/**
+	 * Strings equal in binary, case sensitive and general case insensitive
+	 * collations (one weight per character) can be normalized. Other
+	 * collations (e.g. unicode or language specific) expand or ignore
+	 * characters.
+	 * 
+	 * @return true if keys with these collations can be routed
+	 */
+	public static boolean isRoutable(String[] collations) {
+		for (String collation : collations) {
+			if (collation != null && !"binary".equals(collation) && !collation.endsWith("_bin")
+					&& !collation.endsWith("_cs") && !collation.endsWith("_general_ci")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void run() {
+		try {
+			try {
+				while (true) {
+					if (!_queue.isAvailable()) {
+						// publish routed operations while waiting
+						for (SpscBatchQueue<Operation> shard : _shards) {
+							shard.flush();
+						}
+					}
+					Operation op = _queue.take();
+					if (op == Operation.END) {
+						break;
+					}
+					_shards.get(shard(op.getValues())).put(op);
+				}
+			} finally {
+				for (SpscBatchQueue<Operation> shard : _shards) {
+					shard.put(Operation.END);
+				}
+			}
+		} catch (InterruptedException e) {
+			log.info("routing operations interrupted");
+		}
+	}
+
+	/**
+	 * @return index of the queue for a row
+	 */
+	int shard(Object[] row) {
+		int hash = 0;
+		for (int i = 0; i < _indexes.length; i++) {
+			long v = hashValue(row[_indexes[i]], _folded[i]);
+			hash = 31 * hash + (int) (v ^ v >>> 32);
+		}
+		// spread bits of sequential values
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return (hash & Integer.MAX_VALUE) % _shards.size();
+	}
+
+	/**
+	 * @param folded
+	 *            true to ignore case and accents of strings
+	 * @return a value equal for all values the database considers equal
+	 */
+	private static long hashValue(Object value, boolean folded) {
+		if (value instanceof Number) {
+			// equal for 1 and 1.00 or Integer and Long
+			return ((Number) value).longValue();
+		} else if (value instanceof Date) {
+			return ((Date) value).getTime() / 1000;
+		} else if (value instanceof String) {
+			return normalize((String) value, folded).hashCode();
+		} else if (value instanceof byte[]) {
+			return Arrays.hashCode((byte[]) value);
+		} else if (value != null) {
+			return value.hashCode();
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return string without trailing spaces (PAD SPACE), without accents and
+	 *         in lower case if folded. Normalizing to a coarser form than the
+	 *         collation is fine as it only affects distribution.
+	 */
+	static String normalize(String value, boolean folded) {
+		int end = value.length();
+		while (end > 0 && value.charAt(end - 1) == ' ') {
+			end--;
+		}
+		value = value.substring(0, end);
+		if (!folded) {
+			return value;
+		}
+		value = MARKS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("");
+		char[] chars = value.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			// per character to avoid expansions like 'ß' to "SS"
+			char c = Character.toLowerCase(Character.toUpperCase(chars[i]));
+			// general_ci sorts 'ß' as 's'
+			chars[i] = c == '\u00df' ? 's' : c;
+		}
+		return new String(chars);
+	}
+}
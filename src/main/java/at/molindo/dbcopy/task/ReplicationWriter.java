@@ -0,0 +1,132 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.molindo.dbcopy.Table;
+import at.molindo.dbcopy.Table.UniqueKey;
+import at.molindo.dbcopy.operation.Operation;
+import at.molindo.dbcopy.util.Utils;
+import at.molindo.utils.data.Function;
+
+/**
+ * Writes changes replicated by {@link BinlogReplicator} to tables of target.
+ * Statements are prepared once per table on a single connection and kept
+ * until {@link #close()}. Deletes are written as keyed multi-row deletes,
+ * upserts as multi-row upserts.
+ */
+final class ReplicationWriter {
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ReplicationWriter.class);
+
+	private final Connection _connection;
+	private final long _maxBytes;
+	private final Map<String, TableStatements> _statements = new HashMap<String, TableStatements>();
+
+	ReplicationWriter(Connection connection) throws SQLException {
+		if (connection == null) {
+			throw new NullPointerException("connection");
+		}
+		_connection = connection;
+		// leave room for the query itself
+		_maxBytes = BatchWriter.maxAllowedPacket(connection) / 4 * 3;
+	}
+
+	/**
+	 * write deletes followed by upserts
+	 */
+	public void write(Table table, List<Operation> deletes, List<Operation> upserts) throws SQLException {
+		TableStatements statements = _statements.get(table.getName());
+		if (statements == null) {
+			_statements.put(table.getName(), statements = new TableStatements(table));
+		}
+		execute(statements._delete, deletes, table.getPrimaryKey(), table, "delete");
+		execute(statements._upsert, upserts, null, table, "upsert");
+	}
+
+	/**
+	 * @param key
+	 *            key to bind for keyed deletes, null to bind rows
+	 */
+	private static void execute(BulkStatements bulk, List<Operation> buffer, UniqueKey key, Table table,
+			String type) throws SQLException {
+		int offset = 0;
+		while (offset < buffer.size()) {
+			int rows = bulk.rows(buffer, offset);
+			PreparedStatement ps = bulk.statement(rows);
+			for (int i = 0; i < rows; i++) {
+				Object[] values = buffer.get(offset + i).getValues();
+				if (key != null) {
+					key.delete(ps, values, i);
+				} else {
+					table.insert(ps, values, i);
+				}
+			}
+
+			long start = System.nanoTime();
+			int affected = ps.executeUpdate();
+			bulk.executed(rows, System.nanoTime() - start);
+			ps.clearParameters();
+			offset += rows;
+
+			if (log.isDebugEnabled()) {
+				log.debug("bulk " + type + " of " + rows + " rows affected " + affected + " rows of "
+						+ table.getName());
+			}
+		}
+	}
+
+	/**
+	 * close all statements and the connection
+	 */
+	public void close() {
+		for (TableStatements statements : _statements.values()) {
+			statements._delete.close();
+			statements._upsert.close();
+		}
+		_statements.clear();
+		Utils.close(_connection);
+	}
+
+	private final class TableStatements {
+		private final BulkStatements _delete;
+		private final BulkStatements _upsert;
+
+		private TableStatements(final Table table) {
+			final UniqueKey key = table.getPrimaryKey();
+			_delete = new BulkStatements(_connection, new Function<Integer, String>() {
+
+				@Override
+				public String apply(Integer rows) {
+					return key.getKeyedDelete(rows);
+				}
+			}, table.getBulkSize(), _maxBytes);
+			_upsert = new BulkStatements(_connection, new Function<Integer, String>() {
+
+				@Override
+				public String apply(Integer rows) {
+					return table.getBulkUpsertQuery(rows);
+				}
+			}, table.getBulkSize(), _maxBytes);
+		}
+	}
+}
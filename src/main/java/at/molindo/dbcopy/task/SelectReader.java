@@ -16,20 +16,22 @@
 package at.molindo.dbcopy.task;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Date;
-import java.util.concurrent.BlockingQueue;
 
 import at.molindo.dbcopy.Column;
 import at.molindo.dbcopy.Selectable;
+import at.molindo.dbcopy.Table.UniqueKey;
+import at.molindo.dbcopy.util.SpscBatchQueue;
 import at.molindo.dbcopy.util.Utils;
 
 /**
  * a {@link Runnable} implementation that reads rows from a {@link Selectable}
  * (using {@link Selectable#getOrderedSelect()} and submits them to a
- * {@link BlockingQueue}, preceded by the header (an Object[] of {@link Column}
+ * {@link SpscBatchQueue}, preceded by the header (an Object[] of {@link Column}
  * s) and succeeded by {@link Utils#END}. It uses a MySQL streaming resultset to
  * do so.
  */
@@ -37,17 +39,33 @@ public class SelectReader extends AbstractConnectionRunnable {
 
 	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SelectReader.class);
 
-	private final Selectable _source;
-	private final BlockingQueue<Object[]> _queue;
+	private final String _query;
+	private final Object[] _params;
+	private final SpscBatchQueue<Object[]> _queue;
 
-	public SelectReader(Selectable source, BlockingQueue<Object[]> queue) {
-		if (source == null) {
-			throw new NullPointerException("source");
+	public SelectReader(Selectable source, SpscBatchQueue<Object[]> queue) {
+		this(source.getOrderedSelect(), new Object[0], queue);
+	}
+
+	/**
+	 * @param query
+	 *            an ordered select query, e.g.
+	 *            {@link UniqueKey#getOrderedSelect(at.molindo.dbcopy.KeyRange)}
+	 * @param params
+	 *            parameters for query
+	 */
+	public SelectReader(String query, Object[] params, SpscBatchQueue<Object[]> queue) {
+		if (query == null) {
+			throw new NullPointerException("query");
+		}
+		if (params == null) {
+			throw new NullPointerException("params");
 		}
 		if (queue == null) {
 			throw new NullPointerException("queue");
 		}
-		_source = source;
+		_query = query;
+		_params = params;
 		_queue = queue;
 	}
 
@@ -57,31 +75,10 @@ public class SelectReader extends AbstractConnectionRunnable {
 		ResultSet res = executeQuery(connection);
 
 		try {
-			java.sql.ResultSetMetaData meta = res.getMetaData();
-			int columns = meta.getColumnCount();
-
-			try {
-				// send header first
-				Object[] header = new Object[columns];
-				for (int i = 0; i < columns; i++) {
-					Class<?> cls = Class.forName(meta.getColumnClassName(i + 1));
-
-					/*
-					 * workaround for getColumnClassName(..) ignoring
-					 * yearIsDateType=false
-					 * 
-					 * TODO link or create bug report
-					 */
-					if (Date.class.isAssignableFrom(cls) && "YEAR".equals(meta.getColumnTypeName(i + 1))) {
-						cls = Short.class;
-					}
-
-					header[i] = new Column(meta.getColumnLabel(i + 1), cls);
-				}
-				_queue.put(header);
-			} catch (ClassNotFoundException e) {
-				throw new RuntimeException("columnClassName unknown");
-			}
+			// send header first
+			Column[] header = header(res.getMetaData());
+			int columns = header.length;
+			_queue.put(header);
 
 			while (res.next()) {
 				Object[] row = new Object[columns];
@@ -99,7 +96,53 @@ public class SelectReader extends AbstractConnectionRunnable {
 		}
 	}
 
+	/**
+	 * @return a {@link Column} with label and java type per column
+	 */
+	static Column[] header(ResultSetMetaData meta) throws SQLException {
+		return header(meta, false);
+	}
+
+	/**
+	 * @param rawStrings
+	 *            if true, the encoding of string columns is set to read them
+	 *            as raw bytes (MySQL only)
+	 * @return a {@link Column} with label and java type per column
+	 */
+	static Column[] header(ResultSetMetaData meta, boolean rawStrings) throws SQLException {
+		try {
+			Column[] header = new Column[meta.getColumnCount()];
+			for (int i = 0; i < header.length; i++) {
+				Class<?> cls = Class.forName(meta.getColumnClassName(i + 1));
+
+				/*
+				 * workaround for getColumnClassName(..) ignoring
+				 * yearIsDateType=false
+				 * 
+				 * TODO link or create bug report
+				 */
+				if (Date.class.isAssignableFrom(cls) && "YEAR".equals(meta.getColumnTypeName(i + 1))) {
+					cls = Short.class;
+				}
+
+				String encoding = null;
+				if (rawStrings && cls == String.class && meta instanceof com.mysql.jdbc.ResultSetMetaData) {
+					encoding = ((com.mysql.jdbc.ResultSetMetaData) meta).getColumnCharacterEncoding(i + 1);
+				}
+
+				header[i] = new Column(meta.getColumnLabel(i + 1), null, null, cls, encoding);
+			}
+			return header;
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException("columnClassName unknown");
+		}
+	}
+
 	protected ResultSet executeQuery(Connection connection) throws SQLException {
+		return executeQuery(connection, getQuery(), _params);
+	}
+
+	static ResultSet executeQuery(Connection connection, String query, Object[] params) throws SQLException {
 		/*
 		 * MySQL streaming resultset:
 		 * "The combination of a forward-only, read-only result set, with a fetch size of Integer.MIN_VALUE serves as a signal to the driver to stream result sets row-by-row."
@@ -107,13 +150,16 @@ public class SelectReader extends AbstractConnectionRunnable {
 		 * http://dev.mysql.com/doc/connector-j/en/connector-j-reference-
 		 * implementation-notes.html
 		 */
-		Statement stmt = connection.prepareStatement(getQuery(), ResultSet.TYPE_FORWARD_ONLY,
+		PreparedStatement stmt = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
 				ResultSet.CONCUR_READ_ONLY);
 		stmt.setFetchSize(Integer.MIN_VALUE);
-		return stmt.executeQuery(getQuery());
+		for (int i = 0; i < params.length; i++) {
+			stmt.setObject(i + 1, params[i]);
+		}
+		return stmt.executeQuery();
 	}
 
 	protected String getQuery() {
-		return _source.getOrderedSelect();
+		return _query;
 	}
 }
\ No newline at end of file
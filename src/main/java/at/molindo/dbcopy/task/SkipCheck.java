@@ -0,0 +1,50 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+/**
+ * checks used to skip tables that didn't change since the previous run
+ * without comparing any rows
+ */
+public enum SkipCheck {
+
+	/**
+	 * always compare
+	 */
+	NONE,
+
+	/**
+	 * skip if CHECKSUM TABLE returns equal values for source and target
+	 */
+	CHECKSUM,
+
+	/**
+	 * skip if UPDATE_TIME and TABLE_ROWS of source in information_schema are
+	 * equal to the previous run. Assumes that target is only modified by
+	 * dbcopy. UPDATE_TIME has a granularity of one second, so a change in the
+	 * second the fingerprint was read might go unnoticed. Hence tables updated
+	 * within the last second aren't fingerprinted and always compared.
+	 */
+	UPDATE_TIME,
+
+	/**
+	 * skip if NUM_ROWS and MODIFIED_COUNTER of InnoDB table statistics of
+	 * source are equal to the previous run. Assumes that target is only
+	 * modified by dbcopy.
+	 */
+	MODIFIED_COUNTER;
+
+}
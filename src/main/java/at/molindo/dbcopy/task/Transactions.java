@@ -0,0 +1,159 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Explicit transactions on a writer's connection, committed after a number of
+ * operations or an interval, whichever comes first. Operations buffered for
+ * multi-row statements are committed with the first commit after their
+ * execution. Commit latency is recorded and logged.
+ */
+final class Transactions {
+
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Transactions.class);
+
+	private final Connection _connection;
+	private final int _rows;
+	private final long _intervalNanos;
+
+	private boolean _autoCommit;
+	private int _pending;
+	private long _started;
+
+	private int _commits;
+	private long _commitNanos;
+	private long _maxCommitNanos;
+
+	/**
+	 * @param rows
+	 *            operations per transaction, 0 for no limit
+	 * @param intervalMs
+	 *            maximum duration of a transaction, 0 for no limit
+	 */
+	Transactions(Connection connection, int rows, long intervalMs) {
+		if (connection == null) {
+			throw new NullPointerException("connection");
+		}
+		if (rows < 0) {
+			throw new IllegalArgumentException("rows must be >= 0, was " + rows);
+		}
+		if (intervalMs < 0) {
+			throw new IllegalArgumentException("intervalMs must be >= 0, was " + intervalMs);
+		}
+		_connection = connection;
+		_rows = rows;
+		_intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+	}
+
+	/**
+	 * @return true if rows or interval are set, false for autocommit
+	 */
+	public boolean isEnabled() {
+		return _rows > 0 || _intervalNanos > 0;
+	}
+
+	/**
+	 * disable autocommit if enabled
+	 */
+	public void begin() throws SQLException {
+		if (isEnabled()) {
+			_autoCommit = _connection.getAutoCommit();
+			_connection.setAutoCommit(false);
+			_started = System.nanoTime();
+		}
+	}
+
+	/**
+	 * count an operation, committing if the transaction is complete
+	 */
+	public void added() throws SQLException {
+		if (!isEnabled()) {
+			return;
+		}
+		_pending++;
+		if (_rows > 0 && _pending >= _rows || _intervalNanos > 0 && System.nanoTime() - _started >= _intervalNanos) {
+			commit();
+		}
+	}
+
+	public void commit() throws SQLException {
+		if (!isEnabled()) {
+			return;
+		}
+		long start = System.nanoTime();
+		_connection.commit();
+		long nanos = System.nanoTime() - start;
+
+		_commits++;
+		_commitNanos += nanos;
+		_maxCommitNanos = Math.max(_maxCommitNanos, nanos);
+		if (log.isTraceEnabled()) {
+			log.trace("committed " + _pending + " operations in " + TimeUnit.NANOSECONDS.toMicros(nanos) + "us");
+		}
+
+		_pending = 0;
+		_started = System.nanoTime();
+	}
+
+	/**
+	 * roll back the current transaction, e.g. after an error
+	 */
+	public void rollback() {
+		if (!isEnabled()) {
+			return;
+		}
+		try {
+			_connection.rollback();
+		} catch (SQLException e) {
+			log.warn("rollback failed", e);
+		}
+		_pending = 0;
+	}
+
+	/**
+	 * restore autocommit and log commit latency
+	 */
+	public void close(String table) {
+		if (!isEnabled()) {
+			return;
+		}
+		try {
+			_connection.setAutoCommit(_autoCommit);
+		} catch (SQLException e) {
+			log.warn("failed to restore autocommit", e);
+		}
+		if (_commits > 0 && log.isDebugEnabled()) {
+			log.debug(_commits + " commits on " + table + " (avg " + TimeUnit.NANOSECONDS.toMicros(getAvgCommitNanos())
+					+ "us, max " + TimeUnit.NANOSECONDS.toMicros(_maxCommitNanos) + "us)");
+		}
+	}
+
+	public int getCommits() {
+		return _commits;
+	}
+
+	public long getAvgCommitNanos() {
+		return _commits == 0 ? 0 : _commitNanos / _commits;
+	}
+
+	public long getMaxCommitNanos() {
+		return _maxCommitNanos;
+	}
+}
@@ -15,12 +15,10 @@
  */
 package at.molindo.dbcopy.util;
 
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import at.molindo.mysqlcollations.lib.Collation;
-import at.molindo.utils.collections.CollectionUtils;
 
 public class CollationRowComparator extends NaturalRowComparator {
 
@@ -29,7 +27,12 @@ public class CollationRowComparator extends NaturalRowComparator {
 	// CollectionUtils.unmodifiableSet("utf8", "utf8mb3", "utf8mb4",
 	// "utf16", "utf32", "ucs2");
 
-	private final List<Comparator<String>> _collators;
+	private final String[] _collations;
+
+	/**
+	 * created lazily to load the native collations library only if needed
+	 */
+	private final AtomicReferenceArray<Comparator<String>> _collators;
 
 	static Comparator<String> newComparator(String collation) {
 		return Collation.get(collation);
@@ -42,28 +45,33 @@ public class CollationRowComparator extends NaturalRowComparator {
 			throw new IllegalArgumentException("indexes and collations must be of same length");
 		}
 
-		_collators = new ArrayList<Comparator<String>>(collations.length);
-		CollectionUtils.resize(_collators, collations.length);
-
-		for (int i = 0; i < collations.length; i++) {
-			String collation = collations[i];
-			if (collation != null) {
-				_collators.set(i, newComparator(collation));
-			}
-		}
-
+		_collations = collations.clone();
+		_collators = new AtomicReferenceArray<Comparator<String>>(collations.length);
 	}
 
 	@Override
 	protected int compare(int i, Object c1, Object c2) {
-		Comparator<String> collator = _collators.get(i);
-		if (collator != null) {
-			return collator.compare((String) c1, (String) c2);
+		if (_collations[i] != null) {
+			return collator(i).compare((String) c1, (String) c2);
 		} else {
 			return super.compare(i, c1, c2);
 		}
 	}
 
+	@Override
+	public boolean isBinary(int i) {
+		return _collations[i] == null;
+	}
+
+	private Comparator<String> collator(int i) {
+		Comparator<String> collator = _collators.get(i);
+		if (collator == null) {
+			collator = newComparator(_collations[i]);
+			_collators.set(i, collator);
+		}
+		return collator;
+	}
+
 	// /**
 	// * "All MySQL collations are of type PADSPACE. This means that all CHAR
 	// and
@@ -32,6 +32,9 @@ import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
 import at.molindo.dbcopy.source.DataSourceRole;
+import at.molindo.dbcopy.task.CompareMode;
+import at.molindo.dbcopy.task.SkipCheck;
+import at.molindo.dbcopy.task.UpsertMode;
 import at.molindo.utils.collections.IteratorUtils;
 import at.molindo.utils.collections.IteratorWrappers;
 import at.molindo.utils.data.StringUtils;
@@ -125,6 +128,77 @@ public class DbcopyProperties {
 		return getBool("db.dry_run", false);
 	}
 
+	/**
+	 * @return a new queue to pass rows or operations from one task to another
+	 */
+	public <T> SpscBatchQueue<T> newQueue(T end) {
+		return new SpscBatchQueue<T>(end, getQueueBatchSize(), getQueueCapacity(), getQueueWaitStrategy());
+	}
+
+	/**
+	 * @return a new queue to pass {@link RowBatch}es of
+	 *         {@link #getQueueBatchSize()} rows from one task to another
+	 */
+	public SpscBatchQueue<RowBatch> newBatchQueue() {
+		return new SpscBatchQueue<RowBatch>(RowBatch.END, 1, getQueueCapacity(), getQueueWaitStrategy());
+	}
+
+	public int getQueueBatchSize() {
+		return getInt("task.queue.batch_size", 256);
+	}
+
+	private int getQueueCapacity() {
+		return getInt("task.queue.capacity", 4);
+	}
+
+	private WaitStrategy getQueueWaitStrategy() {
+		return WaitStrategy.valueOf(getString("task.queue.wait", WaitStrategy.PARK.name()).trim().toUpperCase());
+	}
+
+	/**
+	 * @return number of threads checking equality of rows matched by key, 0
+	 *         to check equality on the thread comparing keys
+	 */
+	public int getCompareParallelism() {
+		return getInt("task.compare.parallelism", 0);
+	}
+
+	/**
+	 * @return true to keep tables in sync by tailing the source binlog after
+	 *         all tasks finished
+	 */
+	public boolean isBinlogEnabled() {
+		return getBool("task.binlog.enabled", false);
+	}
+
+	/**
+	 * @return server id used to connect as replication client, must be unique
+	 *         among all replicas of the source
+	 */
+	public int getBinlogServerId() {
+		return getInt("task.binlog.server_id", 65535);
+	}
+
+	/**
+	 * @return maximum delay in milliseconds before changes read from the binlog
+	 *         are written to the target
+	 */
+	public int getBinlogFlushInterval() {
+		return getInt("task.binlog.flush_interval", 1000);
+	}
+
+	/**
+	 * @return directory for state kept between runs, e.g. {@link MerkleTree}
+	 *         files
+	 */
+	public File getStateDirectory() {
+		File dir = new File(getString("task.state_dir", ".dbcopy"));
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IllegalStateException("can't create state directory: " + dir.getAbsolutePath());
+		}
+		return dir;
+	}
+
 	public String getString(String key) throws MissingPropertyException {
 		String p = _props.getProperty(key);
 		if (StringUtils.empty(p)) {
@@ -145,6 +219,30 @@ public class DbcopyProperties {
 		}
 	}
 
+	public int getInt(String key, int defaultValue) {
+		String p = getString(key, null);
+		if (StringUtils.empty(p)) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(p.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("can't parse integer from property value " + key, e);
+		}
+	}
+
+	public long getLong(String key, long defaultValue) {
+		String p = getString(key, null);
+		if (StringUtils.empty(p)) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(p.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("can't parse long from property value " + key, e);
+		}
+	}
+
 	public boolean getBool(String key) throws MissingPropertyException {
 		return Boolean.parseBoolean(getString(key));
 	}
@@ -198,6 +296,14 @@ public class DbcopyProperties {
 		public int getPoolSize() {
 			return getInt(_prefix + "pool");
 		}
+
+		/**
+		 * @return number of additional connections used to fetch rows by key
+		 *         while streaming rows, default 1
+		 */
+		public int getFetchPoolSize() {
+			return getInt(_prefix + "fetch_pool", 1);
+		}
 	}
 
 	public class TableTaksProperties {
@@ -212,6 +318,168 @@ public class DbcopyProperties {
 			return getSet(_prefix + "include");
 		}
 
+		/**
+		 * @return value of task.tables.&lt;table&gt;.&lt;key&gt;, falling back
+		 *         to task.tables.&lt;key&gt;
+		 */
+		public String getString(String table, String key, String defaultValue) {
+			String value = DbcopyProperties.this.getString(_prefix + table + "." + key, null);
+			return StringUtils.empty(value) ? DbcopyProperties.this.getString(_prefix + key, defaultValue) : value;
+		}
+
+		public int getInt(String table, String key, int defaultValue) {
+			String value = DbcopyProperties.this.getString(_prefix + table + "." + key, null);
+			return StringUtils.empty(value) ? DbcopyProperties.this.getInt(_prefix + key, defaultValue)
+					: DbcopyProperties.this.getInt(_prefix + table + "." + key);
+		}
+
+		public long getLong(String table, String key, long defaultValue) {
+			String value = DbcopyProperties.this.getString(_prefix + table + "." + key, null);
+			return DbcopyProperties.this.getLong(StringUtils.empty(value) ? _prefix + key : _prefix + table + "."
+					+ key, defaultValue);
+		}
+
+		public boolean getBool(String table, String key, boolean defaultValue) {
+			return Boolean.parseBoolean(getString(table, key, Boolean.toString(defaultValue)));
+		}
+
+		public CompareMode getCompareMode(String table) {
+			String mode = getString(table, "mode", null);
+			try {
+				return StringUtils.empty(mode) ? CompareMode.FULL : CompareMode.valueOf(mode.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("unknown compare mode for table " + table + ": " + mode, e);
+			}
+		}
+
+		public SkipCheck getSkipCheck(String table) {
+			String check = getString(table, "skip", null);
+			try {
+				return StringUtils.empty(check) ? SkipCheck.NONE : SkipCheck.valueOf(check.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("unknown skip check for table " + table + ": " + check, e);
+			}
+		}
+
+		/**
+		 * @return name of an indexed column updated on every change (e.g.
+		 *         updated_at or version) to only read rows changed since the
+		 *         previous run, null if not configured
+		 */
+		@CheckForNull
+		public String getWatermarkColumn(String table) {
+			String column = getString(table, "watermark", null);
+			return StringUtils.empty(column) ? null : column;
+		}
+
+		/**
+		 * @return true to order rows by WEIGHT_STRING(..) of collated key
+		 *         columns selected from the database instead of emulating
+		 *         collations
+		 */
+		public boolean isWeightStrings(String table) {
+			return getBool(table, "weight_string", false);
+		}
+
+		/**
+		 * @return true to read string columns as raw bytes when streaming
+		 *         rows for comparison, decoding them only if written
+		 */
+		public boolean isRawStrings(String table) {
+			return getBool(table, "raw_strings", false);
+		}
+
+		/**
+		 * @return true to only update changed columns of rows compared by
+		 *         streaming, batching updates of equal columns
+		 */
+		public boolean isUpdateChanged(String table) {
+			return getBool(table, "update_changed", false);
+		}
+
+		/**
+		 * @return number of updates loaded into a temporary staging table
+		 *         before applying them with a single joined update, 0 to
+		 *         update row by row
+		 */
+		public int getStagingWindow(String table) {
+			return getInt(table, "staging_window", 0);
+		}
+
+		/**
+		 * @return operations written per transaction, 0 for no limit
+		 */
+		public int getCommitRows(String table) {
+			return getInt(table, "commit_rows", 0);
+		}
+
+		/**
+		 * @return maximum duration of a transaction in ms, 0 for no limit
+		 */
+		public int getCommitInterval(String table) {
+			return getInt(table, "commit_interval", 0);
+		}
+
+		/**
+		 * @return operations written as multi-row upserts
+		 */
+		public UpsertMode getUpsertMode(String table) {
+			String mode = getString(table, "bulk_upsert", null);
+			try {
+				return StringUtils.empty(mode) ? UpsertMode.NONE : UpsertMode.valueOf(mode.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("unknown upsert mode for table " + table + ": " + mode, e);
+			}
+		}
+
+		/**
+		 * @return true to write inserts using "LOAD DATA LOCAL INFILE" (requires
+		 *         local_infile on target)
+		 */
+		public boolean isLoadData(String table) {
+			return getBool(table, "load_data", false);
+		}
+
+		/**
+		 * @return number of writers on separate target connections, with
+		 *         operations routed by a hash of primary key values
+		 */
+		public int getWriters(String table) {
+			return getInt(table, "writers", 1);
+		}
+
+		/**
+		 * @return approximate number of rows per range if a table should be
+		 *         compared in multiple tasks, 0 to compare a table in one task
+		 */
+		public long getRangeSize(String table) {
+			return getLong(table, "range_size", 0);
+		}
+
+		/**
+		 * @return number of rows before the last row of target that are
+		 *         compared in {@link CompareMode#TAIL}
+		 */
+		public int getTailOverlap(String table) {
+			return getInt(table, "tail.overlap", 0);
+		}
+
+		/**
+		 * @return number of rows per chunk in {@link CompareMode#CHECKSUM}
+		 */
+		public int getChecksumChunkSize(String table) {
+			return getInt(table, "checksum.chunk_size", 100000);
+		}
+
+		/**
+		 * @return minimum number of rows per chunk in
+		 *         {@link CompareMode#CHECKSUM}. Chunks with different
+		 *         checksums are bisected until they are smaller than this
+		 */
+		public int getChecksumMinChunkSize(String table) {
+			return getInt(table, "checksum.min_chunk_size", 1000);
+		}
+
 	}
 
 	public class QueryTaskProperties implements Iterable<QueryTask> {
@@ -15,7 +15,12 @@
  */
 package at.molindo.dbcopy.util;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.BitSet;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -44,10 +49,20 @@ public class Equals {
 		NUMERIC.put(Long.class, ValueEquals.LONG);
 		NUMERIC.put(Float.class, ValueEquals.FLOAT);
 		NUMERIC.put(Double.class, ValueEquals.DOUBLE);
+		NUMERIC.put(BigDecimal.class, ValueEquals.DECIMAL);
+		NUMERIC.put(BigInteger.class, ValueEquals.DECIMAL);
 	}
 
 	private final ValueEquals[] _equals;
 
+	/**
+	 * columns stored as raw bytes of equal encoding in {@link RowBatch}es of
+	 * both headers (compared without decoding) or of only one header (compared
+	 * decoded)
+	 */
+	private final BitSet _rawColumns;
+	private final BitSet _decodeColumns;
+
 	@Nonnull
 	public static ValueEquals findEquals(@Nonnull Class<?> c1, @Nonnull Class<?> c2) {
 		if (c1 == null) {
@@ -57,8 +72,15 @@ public class Equals {
 			throw new NullPointerException("c2");
 		}
 
-		// TODO support for arrays necessary (e.g. byte[])?
-		if (c1.equals(c2)) {
+		if (c1 == byte[].class && c2 == byte[].class) {
+			return ValueEquals.BYTES;
+		} else if (java.util.Date.class.isAssignableFrom(c1) && java.util.Date.class.isAssignableFrom(c2)) {
+			// e.g. Timestamp and Date
+			return ValueEquals.TEMPORAL;
+		} else if (c1 == BigDecimal.class && c2 == BigDecimal.class) {
+			// ignore scale
+			return ValueEquals.DECIMAL;
+		} else if (c1.equals(c2)) {
 			return ValueEquals.DEFAULT;
 		} else {
 			ValueEquals e;
@@ -83,7 +105,9 @@ public class Equals {
 	 * returns bet fitting of two numeric equals, e.g.:
 	 * 
 	 * <ul> <li>INTEGER for Short and Integer</li> <li>FLOAT for Integer and
-	 * Float</li> <li>DOUBLE for Short and Double</li> <li>...</li> </ul>
+	 * Float</li> <li>DOUBLE for Short and Double</li> <li>FLOAT for Float and
+	 * Double, as values of a float column are only precise as float</li>
+	 * <li>...</li> </ul>
 	 * 
 	 * @param c1
 	 * @param c2
@@ -98,6 +122,9 @@ public class Equals {
 		if (e1 == null || e2 == null) {
 			// TODO implement better fallback for unknown Number types
 			e = ValueEquals.DEFAULT;
+		} else if (e1 == ValueEquals.FLOAT && e2 == ValueEquals.DOUBLE || e1 == ValueEquals.DOUBLE
+				&& e2 == ValueEquals.FLOAT) {
+			e = ValueEquals.FLOAT;
 		} else {
 			e = e1.compareTo(e2) > 0 ? e1 : e2;
 		}
@@ -119,10 +146,19 @@ public class Equals {
 		}
 
 		_equals = new ValueEquals[h1.length];
+		_rawColumns = new BitSet(h1.length);
+		_decodeColumns = new BitSet(h1.length);
 		for (int i = 0; i < _equals.length; i++) {
 			_equals[i] = findEquals(((Column) h1[i]).getJavaType(), ((Column) h2[i]).getJavaType());
-		}
 
+			String e1 = ((Column) h1[i]).getEncoding();
+			String e2 = ((Column) h2[i]).getEncoding();
+			if (e1 != null && e1.equals(e2)) {
+				_rawColumns.set(i);
+			} else if (e1 != null || e2 != null) {
+				_decodeColumns.set(i);
+			}
+		}
 	}
 
 	public boolean equals(Object[] r1, Object[] r2) {
@@ -133,13 +169,16 @@ public class Equals {
 			return false;
 		}
 
-		int length = r1.length;
-		if (r2.length != length) {
+		// columns beyond the header are ignored, e.g. weight strings
+		int length = _equals.length;
+		if (r1.length < length || r2.length < length) {
 			return false;
 		}
 
 		for (int i = 0; i < length; i++) {
-			if (!_equals[i].equals(r1[i], r2[i])) {
+			Object o1 = r1[i];
+			Object o2 = r2[i];
+			if (o1 == null || o2 == null ? o1 != o2 : !_equals[i].equals(o1, o2)) {
 				return false;
 			}
 		}
@@ -147,6 +186,56 @@ public class Equals {
 		return true;
 	}
 
+	/**
+	 * equality of row r1 of b1 and row r2 of b2 with batches of rows with
+	 * headers as passed to the constructor. Raw values of equal encoding are
+	 * compared without decoding. Columns beyond the header are ignored.
+	 */
+	public boolean equals(RowBatch b1, int r1, RowBatch b2, int r2) {
+		int length = _equals.length;
+		if (b1.getColumns().length < length || b2.getColumns().length < length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (!equals(i, b1, r1, b2, r2)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return indexes of columns not equal in row r1 of b1 and row r2 of b2
+	 * @see #equals(RowBatch, int, RowBatch, int)
+	 */
+	public BitSet changed(RowBatch b1, int r1, RowBatch b2, int r2) {
+		BitSet changed = new BitSet(_equals.length);
+		for (int i = 0; i < _equals.length; i++) {
+			if (!equals(i, b1, r1, b2, r2)) {
+				changed.set(i);
+			}
+		}
+		return changed;
+	}
+
+	private boolean equals(int i, RowBatch b1, int r1, RowBatch b2, int r2) {
+		Object o1, o2;
+		if (_decodeColumns.get(i)) {
+			o1 = b1.getObject(i, r1);
+			o2 = b2.getObject(i, r2);
+		} else {
+			o1 = b1.values(r1)[i];
+			o2 = b2.values(r2)[i];
+		}
+		if (o1 == null || o2 == null) {
+			return o1 == o2;
+		} else if (_rawColumns.get(i)) {
+			return Arrays.equals((byte[]) o1, (byte[]) o2);
+		} else {
+			return _equals[i].equals(o1, o2);
+		}
+	}
+
 	public enum ValueEquals {
 
 		DEFAULT {
@@ -191,9 +280,67 @@ public class Equals {
 				return o1 == null ? o2 == null : Double.compare(((Number) o1).doubleValue(),
 						((Number) o2).doubleValue()) == 0;
 			}
+		},
+
+		/**
+		 * BigDecimal, BigInteger and other numbers, ignoring scale
+		 */
+		DECIMAL {
+			@Override
+			public boolean equals(Object o1, Object o2) {
+				return o1 == null ? o2 == null : o2 != null
+						&& toBigDecimal((Number) o1).compareTo(toBigDecimal((Number) o2)) == 0;
+			}
+		},
+
+		BYTES {
+			@Override
+			public boolean equals(Object o1, Object o2) {
+				return Arrays.equals((byte[]) o1, (byte[]) o2);
+			}
+		},
+
+		/**
+		 * subclasses of {@link java.util.Date}, comparing seconds and nanos
+		 */
+		TEMPORAL {
+			@Override
+			public boolean equals(Object o1, Object o2) {
+				if (o1 == null || o2 == null) {
+					return o1 == o2;
+				}
+				long m1 = ((java.util.Date) o1).getTime();
+				long m2 = ((java.util.Date) o2).getTime();
+				return floorDiv(m1, 1000) == floorDiv(m2, 1000) && nanos(o1, m1) == nanos(o2, m2);
+			}
 		};
 
+		/**
+		 * o2 must not be null unless o1 is null
+		 */
 		protected abstract boolean equals(@CheckForNull Object o1, @CheckForNull Object o2);
+
+		private static BigDecimal toBigDecimal(Number n) {
+			if (n instanceof BigDecimal) {
+				return (BigDecimal) n;
+			} else if (n instanceof BigInteger) {
+				return new BigDecimal((BigInteger) n);
+			} else if (n instanceof Double || n instanceof Float) {
+				return BigDecimal.valueOf(n.doubleValue());
+			} else {
+				return BigDecimal.valueOf(n.longValue());
+			}
+		}
+
+		private static long floorDiv(long x, long y) {
+			long q = x / y;
+			return x % y < 0 ? q - 1 : q;
+		}
+
+		private static int nanos(Object date, long millis) {
+			return date instanceof Timestamp ? ((Timestamp) date).getNanos() : (int) (millis - floorDiv(millis,
+					1000) * 1000) * 1000000;
+		}
 	}
 
 }
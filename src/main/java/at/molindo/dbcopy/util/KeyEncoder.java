@@ -0,0 +1,282 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes keys into byte arrays that compare (unsigned, lexicographically) in
+ * the same order as the values would using {@link NaturalRowComparator}
+ * without collations. Each value is prefixed with a type tag, so that keys
+ * can be decoded again, e.g. after being stored on disk. Integral values are
+ * encoded as sign-flipped big-endian longs (hence Integer and Long values
+ * compare equal), Strings and byte arrays are escaped and terminated to keep
+ * composite keys ordered. An encoder is reusable to avoid allocations.
+ */
+public final class KeyEncoder {
+
+	private static final byte NULL = 0x01;
+	private static final byte BOOLEAN = 0x02;
+	private static final byte LONG = 0x03;
+	private static final byte DOUBLE = 0x04;
+	private static final byte STRING = 0x05;
+	private static final byte BYTES = 0x06;
+	private static final byte TIMESTAMP = 0x07;
+	private static final byte DATE = 0x08;
+	private static final byte TIME = 0x09;
+
+	private byte[] _buf;
+	private int _length;
+
+	public KeyEncoder() {
+		_buf = new byte[64];
+	}
+
+	/**
+	 * @return true if values of type are supported by {@link #add(Object)}
+	 */
+	public static boolean isSupported(Class<?> type) {
+		return type == Long.class || type == Integer.class || type == Short.class || type == Byte.class
+				|| type == Double.class || type == Float.class || type == Boolean.class || type == String.class
+				|| type == byte[].class || type == Timestamp.class || type == java.sql.Date.class
+				|| type == Time.class;
+	}
+
+	public static byte[] encode(Object... values) {
+		KeyEncoder encoder = new KeyEncoder();
+		for (Object value : values) {
+			encoder.add(value);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static Object[] decode(byte[] bytes) {
+		List<Object> values = new ArrayList<Object>();
+		int pos = 0;
+		while (pos < bytes.length) {
+			byte tag = bytes[pos++];
+			switch (tag) {
+			case NULL:
+				values.add(null);
+				break;
+			case BOOLEAN:
+				values.add(bytes[pos++] != 0);
+				break;
+			case LONG:
+				values.add(readLong(bytes, pos) ^ Long.MIN_VALUE);
+				pos += 8;
+				break;
+			case DOUBLE:
+				long bits = readLong(bytes, pos);
+				values.add(Double.longBitsToDouble(bits < 0 ? bits ^ Long.MIN_VALUE : ~bits));
+				pos += 8;
+				break;
+			case TIMESTAMP:
+				Timestamp ts = new Timestamp((readLong(bytes, pos) ^ Long.MIN_VALUE) * 1000);
+				ts.setNanos((int) (readLong(bytes, pos + 8) >>> 32));
+				values.add(ts);
+				pos += 12;
+				break;
+			case DATE:
+				values.add(new java.sql.Date(readLong(bytes, pos) ^ Long.MIN_VALUE));
+				pos += 8;
+				break;
+			case TIME:
+				values.add(new Time(readLong(bytes, pos) ^ Long.MIN_VALUE));
+				pos += 8;
+				break;
+			case STRING:
+			case BYTES:
+				byte[] buf = new byte[bytes.length - pos];
+				int len = 0;
+				while (!(bytes[pos] == 0 && bytes[pos + 1] == 1)) {
+					buf[len++] = bytes[pos];
+					// skip escape
+					pos += bytes[pos] == 0 ? 2 : 1;
+				}
+				pos += 2;
+				if (tag == BYTES) {
+					values.add(Arrays.copyOf(buf, len));
+				} else {
+					char[] chars = new char[len / 2];
+					for (int i = 0; i < chars.length; i++) {
+						chars[i] = (char) ((buf[2 * i] & 0xff) << 8 | buf[2 * i + 1] & 0xff);
+					}
+					values.add(new String(chars));
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("unknown type tag " + tag + " at " + (pos - 1));
+			}
+		}
+		return values.toArray();
+	}
+
+	/**
+	 * unsigned lexicographic comparison
+	 */
+	public static int compare(byte[] b1, int len1, byte[] b2, int len2) {
+		int len = Math.min(len1, len2);
+		for (int i = 0; i < len; i++) {
+			int cmp = (b1[i] & 0xff) - (b2[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return len1 - len2;
+	}
+
+	public static int compare(byte[] b1, byte[] b2) {
+		return compare(b1, b1.length, b2, b2.length);
+	}
+
+	public int compareTo(KeyEncoder other) {
+		return compare(_buf, _length, other._buf, other._length);
+	}
+
+	public KeyEncoder reset() {
+		_length = 0;
+		return this;
+	}
+
+	/**
+	 * append an integral value
+	 */
+	public KeyEncoder addLong(long value) {
+		ensure(9);
+		_buf[_length++] = LONG;
+		writeLong(value ^ Long.MIN_VALUE);
+		return this;
+	}
+
+	/**
+	 * append a floating point value
+	 */
+	public KeyEncoder addDouble(double value) {
+		ensure(9);
+		_buf[_length++] = DOUBLE;
+		long bits = Double.doubleToLongBits(value);
+		writeLong(bits < 0 ? ~bits : bits ^ Long.MIN_VALUE);
+		return this;
+	}
+
+	/**
+	 * append a value of a type supported according to
+	 * {@link #isSupported(Class)} or null
+	 */
+	public KeyEncoder add(Object value) {
+		if (value == null) {
+			ensure(1);
+			_buf[_length++] = NULL;
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte) {
+			addLong(((Number) value).longValue());
+		} else if (value instanceof Double || value instanceof Float) {
+			addDouble(((Number) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			ensure(2);
+			_buf[_length++] = BOOLEAN;
+			_buf[_length++] = (byte) ((Boolean) value ? 1 : 0);
+		} else if (value instanceof String) {
+			String s = (String) value;
+			ensure(1 + 4 * s.length() + 2);
+			_buf[_length++] = STRING;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				writeEscaped((byte) (c >>> 8));
+				writeEscaped((byte) c);
+			}
+			writeTerminator();
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			ensure(1 + 2 * bytes.length + 2);
+			_buf[_length++] = BYTES;
+			for (byte b : bytes) {
+				writeEscaped(b);
+			}
+			writeTerminator();
+		} else if (value instanceof Timestamp) {
+			Timestamp ts = (Timestamp) value;
+			long millis = ts.getTime();
+			long seconds = millis / 1000 - (millis % 1000 < 0 ? 1 : 0);
+			ensure(13);
+			_buf[_length++] = TIMESTAMP;
+			writeLong(seconds ^ Long.MIN_VALUE);
+			writeInt(ts.getNanos());
+		} else if (value instanceof java.sql.Date) {
+			ensure(9);
+			_buf[_length++] = DATE;
+			writeLong(((java.sql.Date) value).getTime() ^ Long.MIN_VALUE);
+		} else if (value instanceof Time) {
+			ensure(9);
+			_buf[_length++] = TIME;
+			writeLong(((Time) value).getTime() ^ Long.MIN_VALUE);
+		} else {
+			throw new IllegalArgumentException("unsupported type " + value.getClass().getName());
+		}
+		return this;
+	}
+
+	public int length() {
+		return _length;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(_buf, _length);
+	}
+
+	private void ensure(int bytes) {
+		if (_length + bytes > _buf.length) {
+			_buf = Arrays.copyOf(_buf, Math.max(_buf.length * 2, _length + bytes));
+		}
+	}
+
+	private void writeEscaped(byte b) {
+		_buf[_length++] = b;
+		if (b == 0) {
+			_buf[_length++] = (byte) 0xff;
+		}
+	}
+
+	private void writeTerminator() {
+		_buf[_length++] = 0;
+		_buf[_length++] = 1;
+	}
+
+	private void writeLong(long v) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			_buf[_length++] = (byte) (v >>> shift);
+		}
+	}
+
+	private void writeInt(int v) {
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			_buf[_length++] = (byte) (v >>> shift);
+		}
+	}
+
+	private static long readLong(byte[] bytes, int pos) {
+		long v = 0;
+		for (int i = 0; i < 8; i++) {
+			v = v << 8 | bytes[pos + i] & 0xff;
+		}
+		return v;
+	}
+}
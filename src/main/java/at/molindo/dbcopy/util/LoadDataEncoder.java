@@ -0,0 +1,323 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+
+import at.molindo.dbcopy.Column;
+
+/**
+ * Encodes rows as tab-separated lines for
+ * "LOAD DATA LOCAL INFILE ... CHARACTER SET binary" with default field and
+ * line options, i.e. NULL as \N and tabs, newlines, NUL bytes and backslashes
+ * escaped with a backslash. Strings are encoded with the charset of their
+ * column, as no conversion takes place for CHARACTER SET binary. Rows are
+ * buffered, an encoder is reusable to avoid allocations.
+ */
+public final class LoadDataEncoder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final Charset[] _charsets;
+
+	private byte[] _buf;
+	private int _length;
+	private int _rows;
+
+	public LoadDataEncoder(List<Column> columns) {
+		if (!isSupported(columns)) {
+			throw new IllegalArgumentException("unsupported columns: " + columns);
+		}
+		_charsets = new Charset[columns.size()];
+		for (int i = 0; i < _charsets.length; i++) {
+			_charsets[i] = charset(columns.get(i).getCollation());
+		}
+		_buf = new byte[4096];
+	}
+
+	/**
+	 * @return true if all columns have a supported data type and a known
+	 *         charset for string columns. Columns that must not be loaded
+	 *         from text (e.g. bit and spatial types) are not supported.
+	 */
+	public static boolean isSupported(List<Column> columns) {
+		for (Column column : columns) {
+			if (!isSupported(column.getDataType())) {
+				return false;
+			}
+			if (column.getCollation() != null && charset(column.getCollation()) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSupported(String dataType) {
+		if (dataType == null) {
+			return false;
+		}
+		switch (dataType) {
+		case "tinyint":
+		case "smallint":
+		case "mediumint":
+		case "int":
+		case "integer":
+		case "bigint":
+		case "decimal":
+		case "float":
+		case "double":
+		case "char":
+		case "varchar":
+		case "tinytext":
+		case "text":
+		case "mediumtext":
+		case "longtext":
+		case "enum":
+		case "set":
+		case "binary":
+		case "varbinary":
+		case "tinyblob":
+		case "blob":
+		case "mediumblob":
+		case "longblob":
+		case "date":
+		case "datetime":
+		case "timestamp":
+		case "time":
+		case "year":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return Java charset of a MySQL collation, null if unknown
+	 */
+	@CheckForNull
+	static Charset charset(@CheckForNull String collation) {
+		if (collation == null) {
+			return null;
+		}
+		int idx = collation.indexOf('_');
+		String charset = idx < 0 ? collation : collation.substring(0, idx);
+		switch (charset) {
+		case "utf8":
+		case "utf8mb3":
+		case "utf8mb4":
+			return UTF8;
+		case "latin1":
+			// MySQL's latin1 is cp1252
+			return Charset.forName("windows-1252");
+		case "ascii":
+			return ASCII;
+		case "ucs2":
+		case "utf16":
+			return Charset.forName("UTF-16BE");
+		case "utf16le":
+			return Charset.forName("UTF-16LE");
+		default:
+			return null;
+		}
+	}
+
+	public void reset() {
+		_length = 0;
+		_rows = 0;
+	}
+
+	/**
+	 * append a row as a line
+	 */
+	public void add(Object[] row) {
+		if (row.length != _charsets.length) {
+			throw new IllegalArgumentException("row size does not match number of columns");
+		}
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0) {
+				write((byte) '\t');
+			}
+			add(i, row[i]);
+		}
+		write((byte) '\n');
+		_rows++;
+	}
+
+	private void add(int column, Object value) {
+		if (value == null) {
+			write((byte) '\\');
+			write((byte) 'N');
+		} else if (value instanceof String) {
+			Charset charset = _charsets[column];
+			if (charset == UTF8 || charset == null) {
+				addUtf8((String) value);
+			} else {
+				addEscaped(((String) value).getBytes(charset));
+			}
+		} else if (value instanceof byte[]) {
+			addEscaped((byte[]) value);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte) {
+			addLong(((Number) value).longValue());
+		} else if (value instanceof BigDecimal) {
+			addAscii(((BigDecimal) value).toPlainString());
+		} else if (value instanceof Boolean) {
+			write((Boolean) value ? (byte) '1' : (byte) '0');
+		} else if (value instanceof Date && !(value instanceof java.sql.Date || value instanceof java.sql.Time)) {
+			// yyyy-mm-dd hh:mm:ss.fffffffff
+			addAscii((value instanceof Timestamp ? value : new Timestamp(((Date) value).getTime())).toString());
+		} else {
+			// numbers, java.sql.Date and java.sql.Time
+			addAscii(value.toString());
+		}
+	}
+
+	private void addLong(long v) {
+		if (v == Long.MIN_VALUE) {
+			addAscii(Long.toString(v));
+			return;
+		}
+		if (v < 0) {
+			write((byte) '-');
+			v = -v;
+		}
+		int digits = 1;
+		for (long p = 10; digits < 19 && v >= p; p *= 10) {
+			digits++;
+		}
+		ensure(digits);
+		for (int i = _length + digits - 1; i >= _length; i--) {
+			_buf[i] = (byte) ('0' + v % 10);
+			v /= 10;
+		}
+		_length += digits;
+	}
+
+	private void addAscii(String s) {
+		ensure(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			_buf[_length++] = (byte) s.charAt(i);
+		}
+	}
+
+	/**
+	 * encode string as UTF-8 without intermediate byte array
+	 */
+	private void addUtf8(String s) {
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				writeEscaped((byte) c);
+			} else if (c < 0x800) {
+				ensure(2);
+				_buf[_length++] = (byte) (0xC0 | c >> 6);
+				_buf[_length++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				ensure(4);
+				_buf[_length++] = (byte) (0xF0 | cp >> 18);
+				_buf[_length++] = (byte) (0x80 | cp >> 12 & 0x3F);
+				_buf[_length++] = (byte) (0x80 | cp >> 6 & 0x3F);
+				_buf[_length++] = (byte) (0x80 | cp & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate, like String.getBytes(UTF-8)
+				writeEscaped((byte) '?');
+			} else {
+				ensure(3);
+				_buf[_length++] = (byte) (0xE0 | c >> 12);
+				_buf[_length++] = (byte) (0x80 | c >> 6 & 0x3F);
+				_buf[_length++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+	}
+
+	private void addEscaped(byte[] bytes) {
+		ensure(bytes.length);
+		for (int i = 0; i < bytes.length; i++) {
+			writeEscaped(bytes[i]);
+		}
+	}
+
+	private void writeEscaped(byte b) {
+		switch (b) {
+		case 0:
+			write((byte) '\\');
+			write((byte) '0');
+			break;
+		case '\t':
+			write((byte) '\\');
+			write((byte) 't');
+			break;
+		case '\n':
+			write((byte) '\\');
+			write((byte) 'n');
+			break;
+		case '\\':
+			write((byte) '\\');
+			write((byte) '\\');
+			break;
+		default:
+			write(b);
+		}
+	}
+
+	private void write(byte b) {
+		if (_length == _buf.length) {
+			ensure(1);
+		}
+		_buf[_length++] = b;
+	}
+
+	private void ensure(int bytes) {
+		if (_length + bytes > _buf.length) {
+			_buf = Arrays.copyOf(_buf, Math.max(_buf.length * 2, _length + bytes));
+		}
+	}
+
+	/**
+	 * @return number of rows added since last {@link #reset()}
+	 */
+	public int getRows() {
+		return _rows;
+	}
+
+	public int length() {
+		return _length;
+	}
+
+	/**
+	 * @return a stream of the current buffer, valid until the next
+	 *         modification
+	 */
+	public InputStream toInputStream() {
+		return new ByteArrayInputStream(_buf, 0, _length);
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(_buf, _length);
+	}
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import at.molindo.dbcopy.KeyRange;
+
+/**
+ * A hash tree of key ranges (leaves) stored in a memory-mapped file. Nodes are
+ * stored in a complete binary tree of 2^n leaves (root at 0, children of i at
+ * 2i+1 and 2i+2), followed by the key boundaries of all leaves.
+ */
+public class MerkleTree implements Closeable {
+
+	private static final int MAGIC = 0x4d4b4c31;
+	private static final int HEADER_SIZE = 12;
+
+	private static final byte NULL = 0;
+	private static final byte LONG = 1;
+	private static final byte INTEGER = 2;
+	private static final byte STRING = 3;
+	private static final byte BIG_INTEGER = 4;
+	private static final byte BIG_DECIMAL = 5;
+	private static final byte BYTES = 6;
+	private static final byte TIMESTAMP = 7;
+	private static final byte DATE = 8;
+	private static final byte TIME = 9;
+
+	private final RandomAccessFile _file;
+	private final MappedByteBuffer _buffer;
+	private final LongBuffer _nodes;
+	private final int _capacity;
+	private final List<KeyRange> _leaves;
+
+	/**
+	 * create a new tree file
+	 *
+	 * @param leaves
+	 *            continuous key ranges in key order
+	 * @param leafHashes
+	 *            hash of each leaf, see {@link #leafHash(long, long)}
+	 */
+	public static MerkleTree create(File file, List<KeyRange> leaves, long[] leafHashes) throws IOException {
+		if (leaves.isEmpty()) {
+			throw new IllegalArgumentException("leaves must not be empty");
+		}
+		if (leaves.size() != leafHashes.length) {
+			throw new IllegalArgumentException("number of leaves and hashes must be equal");
+		}
+
+		int capacity = Integer.highestOneBit(leaves.size());
+		if (capacity < leaves.size()) {
+			capacity <<= 1;
+		}
+
+		// boundaries
+		ByteArrayOutputStream boundaries = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(boundaries);
+		for (int i = 1; i < leaves.size(); i++) {
+			writeKey(out, leaves.get(i).getFrom());
+		}
+		out.flush();
+
+		long nodesEnd = HEADER_SIZE + (2L * capacity - 1) * 8;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			raf.writeInt(MAGIC);
+			raf.writeInt(leaves.size());
+			raf.writeInt(capacity);
+			raf.setLength(nodesEnd);
+			raf.seek(nodesEnd);
+			raf.write(boundaries.toByteArray());
+
+			MerkleTree tree = new MerkleTree(raf, capacity, leaves);
+
+			// leaves, unused leaves remain 0
+			for (int i = 0; i < leafHashes.length; i++) {
+				tree._nodes.put(capacity - 1 + i, leafHashes[i]);
+			}
+			// inner nodes
+			for (int i = capacity - 2; i >= 0; i--) {
+				tree._nodes.put(i, combine(tree._nodes.get(2 * i + 1), tree._nodes.get(2 * i + 2)));
+			}
+			tree._buffer.force();
+			return tree;
+		} catch (IOException e) {
+			Utils.close(raf);
+			throw e;
+		} catch (RuntimeException e) {
+			Utils.close(raf);
+			throw e;
+		}
+	}
+
+	/**
+	 * open an existing tree file
+	 */
+	public static MerkleTree open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.readInt() != MAGIC) {
+				throw new IOException("not a tree file: " + file.getAbsolutePath());
+			}
+			int leafCount = raf.readInt();
+			int capacity = raf.readInt();
+
+			long nodesEnd = HEADER_SIZE + (2L * capacity - 1) * 8;
+			byte[] boundaries = new byte[(int) (raf.length() - nodesEnd)];
+			raf.seek(nodesEnd);
+			raf.readFully(boundaries);
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(boundaries));
+			List<KeyRange> leaves = new ArrayList<KeyRange>(leafCount);
+			Object[] from = null;
+			for (int i = 1; i < leafCount; i++) {
+				Object[] to = readKey(in);
+				leaves.add(new KeyRange(from, to));
+				from = to;
+			}
+			leaves.add(new KeyRange(from, null));
+
+			return new MerkleTree(raf, capacity, leaves);
+		} catch (IOException e) {
+			Utils.close(raf);
+			throw e;
+		} catch (RuntimeException e) {
+			Utils.close(raf);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return hash of a leaf with count rows and a checksum as returned by
+	 *         {@link at.molindo.dbcopy.Table.UniqueKey#checksums(List)}
+	 */
+	public static long leafHash(long count, long checksum) {
+		return combine(count, checksum);
+	}
+
+	private static long combine(long h1, long h2) {
+		// MurmurHash3 fmix64
+		long h = h1 * 0x9e3779b97f4a7c15L ^ h2;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private MerkleTree(RandomAccessFile file, int capacity, List<KeyRange> leaves) throws IOException {
+		_file = file;
+		_capacity = capacity;
+		_leaves = Collections.unmodifiableList(leaves);
+		_buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (2L * capacity - 1) * 8);
+		_buffer.position(HEADER_SIZE);
+		_nodes = _buffer.slice().asLongBuffer();
+	}
+
+	public List<KeyRange> getLeaves() {
+		return _leaves;
+	}
+
+	public long getRootHash() {
+		return _nodes.get(0);
+	}
+
+	/**
+	 * walk both trees from root and collect leaves with different hashes
+	 *
+	 * @return indexes of leaves with different hashes in order
+	 */
+	public List<Integer> diff(MerkleTree other) {
+		if (other._capacity != _capacity || other._leaves.size() != _leaves.size()) {
+			throw new IllegalArgumentException("trees of different size");
+		}
+		List<Integer> leaves = new ArrayList<Integer>();
+		diff(other, 0, leaves);
+		return leaves;
+	}
+
+	private void diff(MerkleTree other, int node, List<Integer> leaves) {
+		if (_nodes.get(node) == other._nodes.get(node)) {
+			return;
+		}
+		if (node >= _capacity - 1) {
+			int leaf = node - _capacity + 1;
+			if (leaf < _leaves.size()) {
+				leaves.add(leaf);
+			}
+		} else {
+			diff(other, 2 * node + 1, leaves);
+			diff(other, 2 * node + 2, leaves);
+		}
+	}
+
+	@Override
+	public void close() {
+		Utils.close(_file);
+	}
+
+	private static void writeKey(DataOutput out, Object[] key) throws IOException {
+		out.writeInt(key.length);
+		for (Object value : key) {
+			writeValue(out, value);
+		}
+	}
+
+	private static Object[] readKey(DataInput in) throws IOException {
+		Object[] key = new Object[in.readInt()];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = readValue(in);
+		}
+		return key;
+	}
+
+	private static void writeValue(DataOutput out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			out.writeByte(INTEGER);
+			out.writeInt(((Number) value).intValue());
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeBytes(out, ((String) value).getBytes("UTF-8"));
+		} else if (value instanceof BigInteger) {
+			out.writeByte(BIG_INTEGER);
+			writeBytes(out, ((BigInteger) value).toByteArray());
+		} else if (value instanceof BigDecimal) {
+			out.writeByte(BIG_DECIMAL);
+			writeBytes(out, ((BigDecimal) value).toString().getBytes("UTF-8"));
+		} else if (value instanceof byte[]) {
+			out.writeByte(BYTES);
+			writeBytes(out, (byte[]) value);
+		} else if (value instanceof java.sql.Timestamp) {
+			out.writeByte(TIMESTAMP);
+			out.writeLong(((java.sql.Timestamp) value).getTime());
+			out.writeInt(((java.sql.Timestamp) value).getNanos());
+		} else if (value instanceof java.sql.Date) {
+			out.writeByte(DATE);
+			out.writeLong(((java.sql.Date) value).getTime());
+		} else if (value instanceof java.sql.Time) {
+			out.writeByte(TIME);
+			out.writeLong(((java.sql.Time) value).getTime());
+		} else {
+			throw new IllegalArgumentException("unsupported key type: " + value.getClass().getName());
+		}
+	}
+
+	private static Object readValue(DataInput in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case NULL:
+			return null;
+		case LONG:
+			return in.readLong();
+		case INTEGER:
+			return in.readInt();
+		case STRING:
+			return new String(readBytes(in), "UTF-8");
+		case BIG_INTEGER:
+			return new BigInteger(readBytes(in));
+		case BIG_DECIMAL:
+			return new BigDecimal(new String(readBytes(in), "UTF-8"));
+		case BYTES:
+			return readBytes(in);
+		case TIMESTAMP:
+			java.sql.Timestamp ts = new java.sql.Timestamp(in.readLong());
+			ts.setNanos(in.readInt());
+			return ts;
+		case DATE:
+			return new java.sql.Date(in.readLong());
+		case TIME:
+			return new java.sql.Time(in.readLong());
+		default:
+			throw new IOException("unknown key type: " + type);
+		}
+	}
+
+	private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
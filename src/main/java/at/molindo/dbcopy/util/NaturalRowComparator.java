@@ -53,6 +53,30 @@ public class NaturalRowComparator implements Comparator<Object[]>, Serializable
 		return 0;
 	}
 
+	/**
+	 * compare row r1 of b1 to row r2 of b2
+	 */
+	public final int compare(RowBatch b1, int r1, RowBatch b2, int r2) {
+		for (int i = 0; i < _indexes.length; i++) {
+			int idx = _indexes[i];
+			int cmp = compare(i, b1.getObject(idx, r1), b2.getObject(idx, r2));
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param i
+	 *            the primary key index, i.e. not the column index
+	 * @return true if values are ordered by their natural order, i.e. without
+	 *         collation
+	 */
+	public boolean isBinary(int i) {
+		return true;
+	}
+
 	/**
 	 * 
 	 * @param i
@@ -70,6 +94,10 @@ public class NaturalRowComparator implements Comparator<Object[]>, Serializable
 			// unpredictable
 			throw new RuntimeException("order by null not implemented");
 		}
+		if (c1 instanceof byte[] && c2 instanceof byte[]) {
+			// binary strings, e.g. WEIGHT_STRING(..)
+			return KeyEncoder.compare((byte[]) c1, (byte[]) c2);
+		}
 		// FIXME not sufficient for strings (collations!)
 		int cmp = ((Comparable<Object>) c1).compareTo(c2);
 		return cmp;
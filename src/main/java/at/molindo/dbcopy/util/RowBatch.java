@@ -0,0 +1,133 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import at.molindo.dbcopy.Column;
+
+/**
+ * A batch of rows as returned by {@link ResultSet#getObject(int)}, passed
+ * between threads in a {@link SpscBatchQueue}. Values of columns with an
+ * encoding (see {@link Column#getEncoding()}) are stored as returned by
+ * {@link ResultSet#getBytes(int)} and only decoded if requested.
+ */
+public final class RowBatch {
+
+	/**
+	 * indicates the end of batches in a {@link SpscBatchQueue}
+	 */
+	public static final RowBatch END = new RowBatch(new Column[0], 0);
+
+	private final Column[] _columns;
+	private final Charset[] _charsets;
+	private final Object[][] _rows;
+	private final int _capacity;
+
+	private int _size;
+
+	public RowBatch(Column[] columns, int capacity) {
+		if (columns == null) {
+			throw new NullPointerException("columns");
+		}
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must be >= 0, was " + capacity);
+		}
+		_columns = columns;
+		_capacity = capacity;
+		_rows = new Object[capacity][];
+
+		Charset[] charsets = null;
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].getEncoding() != null) {
+				if (charsets == null) {
+					charsets = new Charset[columns.length];
+				}
+				charsets[i] = Charset.forName(columns[i].getEncoding());
+			}
+		}
+		_charsets = charsets;
+	}
+
+	/**
+	 * add the current row of rs
+	 */
+	public void add(ResultSet rs) throws SQLException {
+		if (isFull()) {
+			throw new IllegalStateException("batch is full");
+		}
+		Object[] values = new Object[_columns.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = isRaw(i) ? rs.getBytes(i + 1) : rs.getObject(i + 1);
+		}
+		_rows[_size++] = values;
+	}
+
+	public boolean isNull(int column, int row) {
+		return _rows[row][column] == null;
+	}
+
+	/**
+	 * @return true if values of column are stored as raw bytes
+	 */
+	public boolean isRaw(int column) {
+		return _charsets != null && _charsets[column] != null;
+	}
+
+	/**
+	 * @return value as returned by {@link ResultSet#getObject(int)}, raw bytes
+	 *         are decoded
+	 */
+	public Object getObject(int column, int row) {
+		Object value = _rows[row][column];
+		return value != null && isRaw(column) ? new String((byte[]) value, _charsets[column]) : value;
+	}
+
+	/**
+	 * @return all values of row, the stored row itself without raw columns
+	 */
+	public Object[] getRow(int row) {
+		if (_charsets == null) {
+			return _rows[row];
+		}
+		Object[] values = new Object[_columns.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = getObject(i, row);
+		}
+		return values;
+	}
+
+	/**
+	 * @return stored values of row, i.e. raw bytes of raw columns
+	 */
+	Object[] values(int row) {
+		return _rows[row];
+	}
+
+	public Column[] getColumns() {
+		return _columns;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public boolean isFull() {
+		return _size == _capacity;
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import at.molindo.dbcopy.Column;
+
+/**
+ * Binds values of rows to {@link PreparedStatement} parameters using typed
+ * setters. Setters are resolved once per column from
+ * {@link Column#getDataType()} and fall back to
+ * {@link PreparedStatement#setObject(int, Object)} for nulls and unexpected
+ * value types (e.g. BigInteger for unsigned bigint columns). (read-only)
+ */
+public final class RowBinder {
+
+	private static final int OBJECT = 0;
+	private static final int LONG = 1;
+	private static final int INTEGER = 2;
+	private static final int DOUBLE = 3;
+	private static final int FLOAT = 4;
+	private static final int STRING = 5;
+	private static final int BYTES = 6;
+	private static final int DECIMAL = 7;
+	private static final int TIMESTAMP = 8;
+
+	private final int[] _types;
+
+	public RowBinder(List<Column> columns) {
+		_types = new int[columns.size()];
+		for (int i = 0; i < _types.length; i++) {
+			_types[i] = type(columns.get(i).getDataType());
+		}
+	}
+
+	private static int type(String dataType) {
+		if (dataType == null) {
+			return OBJECT;
+		}
+		switch (dataType) {
+		case "bigint":
+			return LONG;
+		case "tinyint":
+		case "smallint":
+		case "mediumint":
+		case "int":
+		case "integer":
+			return INTEGER;
+		case "double":
+			return DOUBLE;
+		case "float":
+			return FLOAT;
+		case "char":
+		case "varchar":
+		case "tinytext":
+		case "text":
+		case "mediumtext":
+		case "longtext":
+			return STRING;
+		case "binary":
+		case "varbinary":
+		case "tinyblob":
+		case "blob":
+		case "mediumblob":
+		case "longblob":
+			return BYTES;
+		case "decimal":
+			return DECIMAL;
+		case "datetime":
+		case "timestamp":
+			return TIMESTAMP;
+		default:
+			return OBJECT;
+		}
+	}
+
+	/**
+	 * bind all values of row starting at parameter offset + 1
+	 */
+	public void bind(PreparedStatement ps, Object[] row, int offset) throws SQLException {
+		if (row.length != _types.length) {
+			throw new IllegalArgumentException("row size does not match number of columns");
+		}
+		for (int i = 0; i < row.length; i++) {
+			bind(ps, offset + i + 1, i, row[i]);
+		}
+	}
+
+	/**
+	 * bind value of column to parameter
+	 */
+	public void bind(PreparedStatement ps, int parameter, int column, Object value) throws SQLException {
+		switch (_types[column]) {
+		case LONG:
+			if (value instanceof Long) {
+				ps.setLong(parameter, (Long) value);
+				return;
+			}
+			break;
+		case INTEGER:
+			if (value instanceof Integer) {
+				ps.setInt(parameter, (Integer) value);
+				return;
+			}
+			break;
+		case DOUBLE:
+			if (value instanceof Double) {
+				ps.setDouble(parameter, (Double) value);
+				return;
+			}
+			break;
+		case FLOAT:
+			if (value instanceof Float) {
+				ps.setFloat(parameter, (Float) value);
+				return;
+			}
+			break;
+		case STRING:
+			if (value instanceof String) {
+				ps.setString(parameter, (String) value);
+				return;
+			}
+			break;
+		case BYTES:
+			if (value instanceof byte[]) {
+				ps.setBytes(parameter, (byte[]) value);
+				return;
+			}
+			break;
+		case DECIMAL:
+			if (value instanceof BigDecimal) {
+				ps.setBigDecimal(parameter, (BigDecimal) value);
+				return;
+			}
+			break;
+		case TIMESTAMP:
+			if (value instanceof Timestamp) {
+				ps.setTimestamp(parameter, (Timestamp) value);
+				return;
+			}
+			break;
+		}
+		ps.setObject(parameter, value);
+	}
+}
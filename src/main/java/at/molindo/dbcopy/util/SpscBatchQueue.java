@@ -0,0 +1,194 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue for exactly one producer and one consumer thread. Elements
+ * are transferred in batches through a ring buffer of preallocated slots, so
+ * that neither locks nor allocations are required per element. A batch is
+ * published when full, on {@link #flush()} or when the end element (e.g.
+ * {@link Utils#END}) is put, which is transferred as a flag of its batch.
+ * Hence, the consumer only sees elements after the producer published them.
+ * 
+ * Unlike a {@link BlockingQueue}, this queue isn't thread-safe for multiple
+ * producers or consumers.
+ */
+public final class SpscBatchQueue<T> {
+
+	private final T _end;
+	private final int _batchSize;
+	private final int _mask;
+	private final WaitStrategy _wait;
+
+	private final Object[][] _slots;
+	private final int[] _sizes;
+	private final boolean[] _ends;
+
+	/**
+	 * number of published batches
+	 */
+	private final AtomicLong _head = new AtomicLong();
+
+	/**
+	 * number of consumed batches
+	 */
+	private final AtomicLong _tail = new AtomicLong();
+
+	// producer only
+	private long _produced;
+	private int _putIndex;
+
+	// consumer only
+	private long _consumed;
+	private Object[] _batch;
+	private int _takeIndex;
+	private int _takeSize;
+	private boolean _takeEnd;
+
+	/**
+	 * @param end
+	 *            the element signaling the end of elements
+	 * @param batchSize
+	 *            number of elements per batch
+	 * @param capacity
+	 *            number of batches, rounded up to the next power of two
+	 */
+	public SpscBatchQueue(T end, int batchSize, int capacity, WaitStrategy wait) {
+		if (end == null) {
+			throw new NullPointerException("end");
+		}
+		if (wait == null) {
+			throw new NullPointerException("wait");
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be >= 1, was " + batchSize);
+		}
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30, was " + capacity);
+		}
+		int slots = Integer.highestOneBit(capacity);
+		if (slots < capacity) {
+			slots <<= 1;
+		}
+
+		_end = end;
+		_batchSize = batchSize;
+		_mask = slots - 1;
+		_wait = wait;
+
+		_slots = new Object[slots][batchSize];
+		_sizes = new int[slots];
+		_ends = new boolean[slots];
+	}
+
+	/**
+	 * add an element, waiting for a free slot if necessary. Putting the end
+	 * element publishes the current batch.
+	 */
+	public void put(T e) throws InterruptedException {
+		if (e == null) {
+			throw new NullPointerException("e");
+		}
+
+		if (_putIndex == 0) {
+			// wait for a free slot
+			int i = 0;
+			while (_produced - _tail.get() > _mask) {
+				_wait.await(i++);
+			}
+		}
+
+		int slot = (int) _produced & _mask;
+		if (e == _end) {
+			_ends[slot] = true;
+			publish(slot);
+		} else {
+			_slots[slot][_putIndex++] = e;
+			if (_putIndex == _batchSize) {
+				publish(slot);
+			}
+		}
+	}
+
+	/**
+	 * publish the current batch even if not full, e.g. before the producer
+	 * waits for input
+	 */
+	public void flush() {
+		if (_putIndex > 0) {
+			publish((int) _produced & _mask);
+		}
+	}
+
+	private void publish(int slot) {
+		_sizes[slot] = _putIndex;
+		_putIndex = 0;
+		// ordered write, slot contents are visible before head
+		_head.lazySet(++_produced);
+	}
+
+	/**
+	 * @return true if {@link #take()} returns without waiting. Producers of
+	 *         other queues may {@link #flush()} them before waiting.
+	 */
+	public boolean isAvailable() {
+		return _batch != null || _head.get() > _consumed;
+	}
+
+	/**
+	 * @return next element, waiting for a published batch if necessary
+	 */
+	@SuppressWarnings("unchecked")
+	public T take() throws InterruptedException {
+		while (true) {
+			if (_batch != null) {
+				if (_takeIndex < _takeSize) {
+					Object e = _batch[_takeIndex];
+					_batch[_takeIndex++] = null;
+					if (_takeIndex == _takeSize && !_takeEnd) {
+						release();
+					}
+					return (T) e;
+				} else if (_takeEnd) {
+					release();
+					return _end;
+				}
+			}
+
+			// wait for next batch
+			int i = 0;
+			while (_head.get() <= _consumed) {
+				_wait.await(i++);
+			}
+
+			int slot = (int) _consumed & _mask;
+			_batch = _slots[slot];
+			_takeSize = _sizes[slot];
+			_takeEnd = _ends[slot];
+			_takeIndex = 0;
+		}
+	}
+
+	private void release() {
+		_ends[(int) _consumed & _mask] = false;
+		_batch = null;
+		// ordered write, slot is cleared before it's reused
+		_tail.lazySet(++_consumed);
+	}
+}
@@ -15,6 +15,8 @@
  */
 package at.molindo.dbcopy.util;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -93,6 +95,16 @@ public final class Utils {
 		}
 	}
 
+	public static void close(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				log.warn("failed to close " + c);
+			}
+		}
+	}
+
 	public static void close(ResultSet rs) {
 		if (rs != null) {
 			try {
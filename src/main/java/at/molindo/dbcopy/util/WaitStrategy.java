@@ -0,0 +1,70 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * strategies to wait for a {@link SpscBatchQueue} to become non-empty or
+ * non-full
+ */
+public enum WaitStrategy {
+
+	/**
+	 * busy spin, lowest latency but burns a CPU core per waiting thread
+	 */
+	SPIN {
+		@Override
+		void idle(int iteration) {
+		}
+	},
+
+	/**
+	 * yield to other threads
+	 */
+	YIELD {
+		@Override
+		void idle(int iteration) {
+			Thread.yield();
+		}
+	},
+
+	/**
+	 * spin shortly, then park with increasing timeouts up to 1ms
+	 */
+	PARK {
+		@Override
+		void idle(int iteration) {
+			if (iteration >= 100) {
+				LockSupport.parkNanos(Math.min(iteration - 99, 1000) * 1000L);
+			}
+		}
+	};
+
+	/**
+	 * @param iteration
+	 *            number of previous calls while waiting for the same
+	 *            condition
+	 */
+	public final void await(int iteration) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		idle(iteration);
+	}
+
+	abstract void idle(int iteration);
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import at.molindo.dbcopy.Table.UniqueKey;
+
+public class TableTest {
+
+	private static UniqueKey key() {
+		Column a = new Column("a");
+		Column b = new Column("b");
+		Column c = new Column("c");
+		return Table.builder("t").addColumns(Arrays.asList(a, b, c)).addUniqueKey("PRIMARY", Arrays.asList(a, b))
+				.build().getPrimaryKey();
+	}
+
+	@Test
+	public void testOrderedSelect() {
+		UniqueKey key = key();
+
+		assertEquals(key.getOrderedSelect(), key.getOrderedSelect(KeyRange.ALL));
+		assertEquals(0, key.getRangeParameters(KeyRange.ALL).length);
+
+		KeyRange range = new KeyRange(new Object[] { 1, 2 }, new Object[] { 3, 4 });
+		assertEquals("SELECT `a`,`b`,`c` FROM `t` WHERE ((`a` > ?) OR (`a` = ? AND `b` >= ?))"
+				+ " AND ((`a` < ?) OR (`a` = ? AND `b` < ?)) ORDER BY `a`,`b`", key.getOrderedSelect(range));
+		assertArrayEquals(new Object[] { 1, 1, 2, 3, 3, 4 }, key.getRangeParameters(range));
+
+		range = new KeyRange(null, new Object[] { 3, 4 });
+		assertEquals("SELECT `a`,`b`,`c` FROM `t` WHERE ((`a` < ?) OR (`a` = ? AND `b` < ?)) ORDER BY `a`,`b`",
+				key.getOrderedSelect(range));
+		assertArrayEquals(new Object[] { 3, 3, 4 }, key.getRangeParameters(range));
+	}
+
+	@Test
+	public void testWeightedSelect() {
+		Column a = new Column("a");
+		Column b = new Column("b", "utf8_unicode_ci");
+		Column c = new Column("c");
+		UniqueKey key = Table.builder("t").addColumns(Arrays.asList(a, b, c))
+				.addUniqueKey("PRIMARY", Arrays.asList(a, b)).build().getPrimaryKey();
+
+		assertEquals("SELECT `a`,`b`,`c`,WEIGHT_STRING(`b`) FROM `t` ORDER BY `a`,`b`",
+				key.getOrderedSelect(KeyRange.ALL, true));
+		assertEquals(1, key.getWeightCount());
+		assertArrayEquals(new int[] { 0, 3 }, key.getWeightComparator().getIndexes());
+
+		// no collated key columns
+		assertEquals(0, key().getWeightCount());
+		assertEquals(key().getOrderedSelect(), key().getOrderedSelect(KeyRange.ALL, true));
+	}
+
+	@Test
+	public void testBoundaryQuery() {
+		KeyRange range = new KeyRange(new Object[] { 1, 2 }, null);
+		assertEquals("SELECT `a`,`b` FROM `t` WHERE ((`a` > ?) OR (`a` = ? AND `b` >= ?)) ORDER BY `a`,`b` LIMIT 1000,1",
+				key().getBoundaryQuery(range, 1000));
+		assertEquals("SELECT `a`,`b` FROM `t` ORDER BY `a` DESC,`b` DESC LIMIT 10,1",
+				key().getLastKeyQuery(KeyRange.ALL, 10));
+	}
+
+	@Test
+	public void testKeyedSelect() {
+		UniqueKey key = key();
+		assertEquals("SELECT `a`,`b`,`c` FROM `t` WHERE (`a` = ? AND `b` = ?) OR (`a` = ? AND `b` = ?)",
+				key.getKeyedSelect(2));
+		assertArrayEquals(new Object[] { 1, 2, 3, 4 },
+				key.getKeyedParameters(Arrays.asList(new Object[] { 1, 2 }, new Object[] { 3, 4 })));
+
+		assertArrayEquals(new Object[] { 1, 2, null }, key.toRow(new Object[] { 1, 2 }));
+		assertArrayEquals(new Object[] { 1, 2 }, key.toKey(new Object[] { 1, 2, 3 }));
+	}
+
+	@Test
+	public void testKeySelect() {
+		UniqueKey key = key();
+		assertEquals("SELECT `a`,`b` FROM `t` WHERE ((`a` < ?) OR (`a` = ? AND `b` < ?)) ORDER BY `a`,`b`",
+				key.getKeySelect(new KeyRange(null, new Object[] { 3, 4 })));
+		assertEquals("SELECT `a`,`b`,`c` FROM `t` WHERE `c` >= ?", key.getChangedSelect("c"));
+	}
+
+	@Test
+	public void testDeleteQueries() {
+		UniqueKey key = key();
+		assertEquals("DELETE FROM `t` WHERE (`a` = ? AND `b` = ?) OR (`a` = ? AND `b` = ?)", key.getKeyedDelete(2));
+		assertEquals("DELETE FROM `t` WHERE ((`a` > ?) OR (`a` = ? AND `b` >= ?))"
+				+ " AND ((`a` < ?) OR (`a` = ? AND `b` <= ?))", key.getRangeDeleteQuery());
+		assertFalse(key.isIntegral());
+
+		Column id = new Column("id", null, "int", null);
+		UniqueKey integral = Table.builder("t").addColumns(Arrays.asList(id, new Column("v")))
+				.addUniqueKey("PRIMARY", Arrays.asList(id)).build().getPrimaryKey();
+		assertTrue(integral.isIntegral());
+		assertEquals("DELETE FROM `t` WHERE `id` IN (?,?,?)", integral.getKeyedDelete(3));
+	}
+
+	@Test
+	public void testChangedUpdateQuery() {
+		Column id = new Column("id", null, "int", null);
+		Column modified = new Column("modified", null, "timestamp", null);
+		UniqueKey key = Table.builder("t").addColumns(Arrays.asList(id, new Column("a"), new Column("b"), modified))
+				.addUniqueKey("PRIMARY", Arrays.asList(id)).build().getPrimaryKey();
+
+		BitSet changed = new BitSet();
+		changed.set(2);
+		// timestamp columns are always assigned
+		assertEquals("UPDATE `t` SET `b` = ?,`modified` = ? WHERE `id` = ?", key.getUpdateQuery(changed));
+		assertFalse(changed.get(3));
+	}
+
+	@Test
+	public void testStagingQueries() {
+		Column id = new Column("id", null, "int", null);
+		UniqueKey key = Table.builder("t").addColumns(Arrays.asList(id, new Column("a")))
+				.addUniqueKey("PRIMARY", Arrays.asList(id)).build().getPrimaryKey();
+
+		assertEquals("dbcopy_t", key.getStagingTable());
+		assertArrayEquals(new String[] { "DROP TEMPORARY TABLE IF EXISTS `dbcopy_t`",
+				"CREATE TEMPORARY TABLE `dbcopy_t` LIKE `t`" }, key.getStagingQueries());
+		assertEquals("INSERT INTO `dbcopy_t` VALUES (?,?),\n(?,?)", key.getStagingInsertQuery(2));
+		assertEquals("UPDATE `t` JOIN `dbcopy_t` USING (`id`) SET `t`.`id` = `dbcopy_t`.`id`,`t`.`a` = `dbcopy_t`.`a`",
+				key.getStagedUpdateQuery());
+		assertEquals("DELETE FROM `dbcopy_t`", key.getClearStagingQuery());
+	}
+
+	@Test
+	public void testDigest() {
+		Column a = new Column("a");
+		Column b = new Column("b");
+		UniqueKey key = Table.builder("t").addColumns(Arrays.asList(a, b)).addUniqueKey("PRIMARY", Arrays.asList(a))
+				.build().getPrimaryKey();
+		assertEquals("SELECT `a`,MD5(CONCAT_WS('#',CONCAT(LENGTH(`a`),':',`a`),CONCAT(LENGTH(`b`),':',`b`),"
+				+ "CONCAT(ISNULL(`a`),ISNULL(`b`)))) FROM `t` ORDER BY `a`", key.getDigestSelect(KeyRange.ALL));
+
+		// values containing the separator are not ambiguous
+		assertFalse(digestInput("x#", "y").equals(digestInput("x", "#y")));
+		assertFalse(digestInput("1:", null).equals(digestInput(null, "1:")));
+	}
+
+	/**
+	 * digested string as evaluated by MySQL for
+	 * {@link UniqueKey#getDigestSelect(KeyRange)}
+	 */
+	private static String digestInput(String... values) {
+		StringBuilder buf = new StringBuilder();
+		StringBuilder nulls = new StringBuilder();
+		for (String value : values) {
+			if (value != null) {
+				buf.append(value.length()).append(':').append(value).append('#');
+			}
+			nulls.append(value == null ? 1 : 0);
+		}
+		return buf.append(nulls).toString();
+	}
+
+	@Test
+	public void testUpsertQuery() {
+		assertEquals("INSERT INTO `t` VALUES (?,?,?) ON DUPLICATE KEY UPDATE `a`=VALUES(`a`),`b`=VALUES(`b`),`c`=VALUES(`c`)",
+				key().getUpsertQuery());
+
+		Table table = Table.builder("t").addColumns(Arrays.asList(new Column("a"), new Column("b")))
+				.addUniqueKey("PRIMARY", Arrays.asList(new Column("a"))).build();
+		String bulk = table.getBulkUpsertQuery();
+		assertTrue(bulk.startsWith("INSERT INTO `t` VALUES (?,?),\n(?,?),\n"));
+		assertTrue(bulk.endsWith("(?,?) ON DUPLICATE KEY UPDATE `a`=VALUES(`a`),`b`=VALUES(`b`)"));
+		assertEquals(table.getBulkSize() * 2, bulk.length() - bulk.replace("?", "").length());
+	}
+
+	@Test
+	public void testSplit() {
+		KeyRange[] split = KeyRange.ALL.split(new Object[] { 1, 2 });
+		assertEquals(null, split[0].getFrom());
+		assertArrayEquals(new Object[] { 1, 2 }, split[0].getTo());
+		assertArrayEquals(new Object[] { 1, 2 }, split[1].getFrom());
+		assertEquals(null, split[1].getTo());
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import at.molindo.dbcopy.Column;
+import at.molindo.dbcopy.Table;
+import at.molindo.dbcopy.task.BinlogReplicator.Changes;
+
+public class BinlogReplicatorTest {
+
+	private static final TimeZone LOCAL = TimeZone.getDefault();
+
+	@Test
+	public void testUpdateKey() {
+		Changes changes = changes(new Column("id", null, "int", false, null, null));
+
+		changes.update(new Object[] { 1, "a" }, new Object[] { 1, "b" });
+		assertEquals(0, changes.getDeletes().size());
+		assertEquals(1, changes.getUpserts().size());
+
+		changes.update(new Object[] { 1, "b" }, new Object[] { 2, "b" });
+		assertEquals(1, changes.getDeletes().size());
+		assertArrayEquals(new Object[] { 1L }, changes.getDeletes().get(0));
+		assertEquals(2, changes.getUpserts().size());
+		assertArrayEquals(new Object[] { 2L }, changes.getUpserts().get(1));
+	}
+
+	@Test
+	public void testDeleteInsert() {
+		Changes changes = changes(new Column("id", null, "int", false, null, null));
+
+		changes.delete(new Object[] { 1, "a" });
+		changes.upsert(new Object[] { 1, "b" });
+
+		// deletes are written first, the row is fetched from source again
+		assertEquals(1, changes.getDeletes().size());
+		assertEquals(1, changes.getUpserts().size());
+		assertEquals(2, changes.size());
+	}
+
+	@Test
+	public void testDedup() {
+		Changes changes = changes(new Column("id", null, "varbinary", false, null, null));
+
+		changes.upsert(new Object[] { new byte[] { 1, 2 }, "a" });
+		changes.upsert(new Object[] { new byte[] { 1, 2 }, "b" });
+		changes.upsert(new Object[] { new byte[] { 1, 3 }, "c" });
+		changes.delete(new Object[] { new byte[] { 4 }, "d" });
+		changes.delete(new Object[] { new byte[] { 4 }, "d" });
+
+		assertEquals(2, changes.getUpserts().size());
+		assertEquals(1, changes.getDeletes().size());
+	}
+
+	@Test
+	public void testUnsigned() {
+		Changes changes = changes(new Column("id", null, "int", true, null, null), new Column("big", null,
+				"bigint", true, null, null));
+
+		changes.upsert(new Object[] { -1, -1L });
+		changes.upsert(new Object[] { 4294967295L, new BigInteger("18446744073709551615") });
+		changes.upsert(new Object[] { 1, 1L });
+
+		assertEquals(2, changes.getUpserts().size());
+		assertEquals(Arrays.asList(4294967295L, new BigInteger("18446744073709551615")),
+				Arrays.asList(changes.getUpserts().get(0)));
+		assertArrayEquals(new Object[] { 1L, 1L }, changes.getUpserts().get(1));
+	}
+
+	@Test
+	public void testTimestamp() {
+		Changes changes = changes(TimeZone.getTimeZone("GMT+02:00"), new Column("ts", null, "timestamp", false, null,
+				null));
+
+		changes.upsert(new Object[] { new Timestamp(0), "a" });
+
+		assertArrayEquals(new Object[] { Timestamp.valueOf("1970-01-01 02:00:00") }, changes.getUpserts().get(0));
+	}
+
+	@Test
+	public void testTimeZone() {
+		assertEquals(TimeZone.getTimeZone("GMT+02:00"), BinlogReplicator.timeZone("+02:00", 0));
+		assertEquals("Europe/Vienna", BinlogReplicator.timeZone("Europe/Vienna", 0).getID());
+		assertEquals(7200000, BinlogReplicator.timeZone("CEST", 7200).getRawOffset());
+	}
+
+	private static Changes changes(Column key) {
+		return changes(LOCAL, key);
+	}
+
+	private static Changes changes(Column key, Column key2) {
+		Table table = Table.builder("t").addColumns(Arrays.asList(key, key2)).addUniqueKey("PRIMARY",
+				Arrays.asList(key, key2)).build();
+		return new Changes(table.getPrimaryKey(), LOCAL);
+	}
+
+	private static Changes changes(TimeZone timeZone, Column key) {
+		Column value = new Column("value", null, "varchar", false, null, null);
+		Table table = Table.builder("t").addColumns(Arrays.asList(key, value)).addUniqueKey("PRIMARY",
+				Arrays.asList(key)).build();
+		return new Changes(table.getPrimaryKey(), timeZone);
+	}
+}
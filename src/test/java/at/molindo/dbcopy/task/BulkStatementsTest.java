@@ -0,0 +1,97 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import at.molindo.dbcopy.operation.Insert;
+import at.molindo.dbcopy.operation.Operation;
+import at.molindo.utils.data.Function;
+
+public class BulkStatementsTest {
+
+	@Test
+	public void testRows() throws Exception {
+		List<Operation> buffer = new ArrayList<Operation>();
+		for (int i = 0; i < 1000; i++) {
+			buffer.add(new Insert(new Object[] { (long) i, "0123456789" }));
+		}
+		long rowBytes = BulkStatements.estimateBytes(buffer.get(0).getValues());
+
+		BulkStatements bulk = new BulkStatements(connection(), queries(), 1000, Long.MAX_VALUE);
+		assertEquals(512, bulk.getSize());
+
+		// ladder of powers of two
+		assertEquals(512, bulk.rows(buffer, 0));
+		assertEquals(256, bulk.rows(buffer, 512));
+		assertEquals(1, bulk.rows(buffer, 999));
+
+		// limited by size
+		bulk = new BulkStatements(connection(), queries(), 1000, rowBytes * 100);
+		assertEquals(64, bulk.rows(buffer, 0));
+	}
+
+	@Test
+	public void testExecuted() throws Exception {
+		BulkStatements bulk = new BulkStatements(connection(), queries(), 16, Long.MAX_VALUE);
+
+		bulk.executed(16, TimeUnit.MILLISECONDS.toNanos(10));
+		assertEquals(32, bulk.getSize());
+		// partial statements don't grow size
+		bulk.executed(8, TimeUnit.MILLISECONDS.toNanos(10));
+		assertEquals(32, bulk.getSize());
+
+		bulk.executed(32, TimeUnit.SECONDS.toNanos(2));
+		assertEquals(16, bulk.getSize());
+
+		// grows up to four times the initial size
+		for (int i = 0; i < 10; i++) {
+			bulk.executed(bulk.getSize(), 0);
+		}
+		assertEquals(64, bulk.getSize());
+	}
+
+	private static Function<Integer, String> queries() {
+		return new Function<Integer, String>() {
+
+			@Override
+			public String apply(Integer rows) {
+				return "rows " + rows;
+			}
+		};
+	}
+
+	private static Connection connection() {
+		return (Connection) Proxy.newProxyInstance(BulkStatementsTest.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import at.molindo.dbcopy.Column;
+import at.molindo.dbcopy.operation.Delete;
+import at.molindo.dbcopy.operation.Insert;
+import at.molindo.dbcopy.operation.Operation;
+import at.molindo.dbcopy.operation.Update;
+import at.molindo.dbcopy.util.Equals;
+import at.molindo.dbcopy.util.RowBatch;
+import at.molindo.dbcopy.util.SpscBatchQueue;
+import at.molindo.dbcopy.util.WaitStrategy;
+
+public class EqualityStageTest {
+
+	private static final Column[] COLUMNS = { new Column("id", Long.class), new Column("v", Long.class) };
+
+	@Test
+	public void testOrder() throws Exception {
+		int rows = 1000;
+		RowBatch target = new RowBatch(COLUMNS, rows);
+		RowBatch source = new RowBatch(COLUMNS, rows);
+		for (long i = 0; i < rows; i++) {
+			target.add(row(i, i));
+			source.add(row(i, i % 3 == 0 ? -i : i));
+		}
+
+		SpscBatchQueue<Operation> queue = new SpscBatchQueue<Operation>(Operation.END, 16, 1000,
+				WaitStrategy.SPIN);
+		EqualityStage stage = new EqualityStage(new ForkJoinPool(4), new Equals(COLUMNS, COLUMNS), 2, 100, 2, queue);
+
+		// every 3rd row updated, every 10th row deleted and inserted
+		int writes = 0;
+		for (int i = 0; i < rows; i++) {
+			if (i % 10 == 0) {
+				writes += stage.delete(target, i);
+				writes += stage.insert(source, i);
+			} else {
+				writes += stage.match(target, i, source, i);
+			}
+		}
+		writes += stage.flush();
+		queue.put(Operation.END);
+
+		int expected = 0;
+		for (long i = 0; i < rows; i++) {
+			if (i % 10 == 0) {
+				assertOperation(Delete.class, new Object[] { i, i }, queue.take());
+				assertOperation(Insert.class, new Object[] { i, i % 3 == 0 ? -i : i }, queue.take());
+				expected += 2;
+			} else if (i % 3 == 0) {
+				assertOperation(Update.class, new Object[] { i, -i }, queue.take());
+				expected++;
+			}
+		}
+		assertSame(Operation.END, queue.take());
+		assertEquals(expected, writes);
+	}
+
+	private static void assertOperation(Class<? extends Operation> type, Object[] values, Operation operation) {
+		assertSame(type, operation.getClass());
+		assertArrayEquals(values, operation.getValues());
+	}
+
+	private static ResultSet row(final Object... values) {
+		return (ResultSet) Proxy.newProxyInstance(EqualityStageTest.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						return "wasNull".equals(method.getName()) ? false : values[(Integer) args[0] - 1];
+					}
+				});
+	}
+}
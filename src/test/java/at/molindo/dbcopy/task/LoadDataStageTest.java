@@ -0,0 +1,69 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import at.molindo.dbcopy.Column;
+import at.molindo.dbcopy.operation.Insert;
+import at.molindo.dbcopy.operation.Operation;
+import at.molindo.dbcopy.util.LoadDataEncoder;
+
+public class LoadDataStageTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testEncode() throws Exception {
+		List<Column> columns = Arrays.asList(new Column("id", null, "bigint", null));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			LoadDataStage stage = new LoadDataStage(new LoadDataEncoder(columns), new LoadDataEncoder(columns),
+					executor);
+
+			List<Operation> buffer = new ArrayList<Operation>();
+			buffer.add(new Insert(new Object[] { 1L }));
+			buffer.add(new Insert(new Object[] { 2L }));
+			assertNull(stage.encode(buffer));
+
+			// buffer may be reused immediately
+			buffer.clear();
+			buffer.add(new Insert(new Object[] { 3L }));
+			LoadDataEncoder first = stage.encode(buffer);
+			assertEquals(2, first.getRows());
+			assertArrayEquals("1\n2\n".getBytes(UTF8), first.toByteArray());
+
+			LoadDataEncoder second = stage.flush();
+			assertTrue(first != second);
+			assertArrayEquals("3\n".getBytes(UTF8), second.toByteArray());
+			assertNull(stage.flush());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
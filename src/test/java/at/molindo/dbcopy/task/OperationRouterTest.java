@@ -0,0 +1,134 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import at.molindo.dbcopy.operation.Delete;
+import at.molindo.dbcopy.operation.Insert;
+import at.molindo.dbcopy.operation.Operation;
+import at.molindo.dbcopy.util.SpscBatchQueue;
+import at.molindo.dbcopy.util.WaitStrategy;
+
+public class OperationRouterTest {
+
+	@Test
+	public void testRoute() throws Exception {
+		SpscBatchQueue<Operation> queue = newQueue();
+		List<SpscBatchQueue<Operation>> shards = new ArrayList<SpscBatchQueue<Operation>>();
+		for (int i = 0; i < 3; i++) {
+			shards.add(newQueue());
+		}
+		OperationRouter router = new OperationRouter(queue, shards, new int[] { 0 });
+
+		int rows = 300;
+		for (long i = 0; i < rows; i++) {
+			queue.put(new Delete(new Object[] { i, "old" }));
+			// equal key of different type
+			queue.put(new Insert(new Object[] { (int) i, "new" }));
+		}
+		queue.put(Operation.END);
+		router.run();
+
+		int count = 0;
+		for (SpscBatchQueue<Operation> shard : shards) {
+			Operation op;
+			int ops = 0;
+			while ((op = shard.take()) != Operation.END) {
+				// insert directly follows delete of same key
+				Operation insert = shard.take();
+				assertSame(Delete.class, op.getClass());
+				assertSame(Insert.class, insert.getClass());
+				assertEquals(((Number) op.getValues()[0]).longValue(), ((Number) insert.getValues()[0]).longValue());
+				ops++;
+			}
+			// roughly evenly distributed
+			assertEquals(true, ops > rows / 6);
+			count += ops;
+		}
+		assertEquals(rows, count);
+	}
+
+	@Test
+	public void testFlush() throws Exception {
+		final SpscBatchQueue<Operation> queue = newQueue();
+		List<SpscBatchQueue<Operation>> shards = new ArrayList<SpscBatchQueue<Operation>>();
+		shards.add(newQueue());
+		Thread router = new Thread(new OperationRouter(queue, shards, new int[] { 0 }));
+		router.start();
+
+		// routed operations are published while the router waits for more
+		queue.put(new Insert(new Object[] { 1L }));
+		queue.flush();
+		assertEquals(1L, shards.get(0).take().getValues()[0]);
+
+		queue.put(Operation.END);
+		assertSame(Operation.END, shards.get(0).take());
+		router.join();
+	}
+
+	@Test
+	public void testStringKeys() throws Exception {
+		List<SpscBatchQueue<Operation>> shards = new ArrayList<SpscBatchQueue<Operation>>();
+		for (int i = 0; i < 4; i++) {
+			shards.add(newQueue());
+		}
+		OperationRouter ci = new OperationRouter(newQueue(), shards, new int[] { 0 },
+				new String[] { "utf8mb4_general_ci" });
+		OperationRouter bin = new OperationRouter(newQueue(), shards, new int[] { 0 },
+				new String[] { "utf8mb4_bin" });
+
+		// equal in general_ci
+		assertEquals(ci.shard(row("Straße")), ci.shard(row("strase ")));
+		assertEquals(ci.shard(row("café")), ci.shard(row("CAFE")));
+		// equal in binary collations, except trailing spaces
+		assertEquals(bin.shard(row("abc")), bin.shard(row("abc  ")));
+		assertEquals(bin.shard(new Object[] { new byte[] { 1, 2 } }), bin.shard(new Object[] { new byte[] { 1, 2 } }));
+
+		// distributed across shards
+		Set<Integer> used = new HashSet<Integer>();
+		for (int i = 0; i < 100; i++) {
+			used.add(ci.shard(row("key" + i)));
+			used.add(bin.shard(new Object[] { ("key" + i).getBytes("UTF-8") }));
+		}
+		assertEquals(shards.size(), used.size());
+	}
+
+	@Test
+	public void testRoutable() {
+		assertTrue(OperationRouter.isRoutable(new String[] { null, "latin1_general_cs", "binary" }));
+		assertFalse(OperationRouter.isRoutable(new String[] { null, "utf8mb4_unicode_ci" }));
+		assertFalse(OperationRouter.isRoutable(new String[] { "utf8mb4_0900_ai_ci" }));
+	}
+
+	private static Object[] row(String key) {
+		return new Object[] { key };
+	}
+
+	private static SpscBatchQueue<Operation> newQueue() {
+		return new SpscBatchQueue<Operation>(Operation.END, 16, 1000, WaitStrategy.SPIN);
+	}
+}
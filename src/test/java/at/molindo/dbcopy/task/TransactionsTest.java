@@ -0,0 +1,88 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TransactionsTest {
+
+	@Test
+	public void testCommitRows() throws Exception {
+		Map<String, Object> state = new HashMap<String, Object>();
+		Transactions transactions = new Transactions(connection(state), 3, 0);
+		assertTrue(transactions.isEnabled());
+
+		transactions.begin();
+		assertEquals(Boolean.FALSE, state.get("autoCommit"));
+
+		for (int i = 0; i < 7; i++) {
+			transactions.added();
+		}
+		assertEquals(2, transactions.getCommits());
+
+		transactions.commit();
+		transactions.close("t");
+		assertEquals(3, state.get("commit"));
+		assertEquals(Boolean.TRUE, state.get("autoCommit"));
+	}
+
+	@Test
+	public void testAutoCommit() throws Exception {
+		Map<String, Object> state = new HashMap<String, Object>();
+		Transactions transactions = new Transactions(connection(state), 0, 0);
+		assertFalse(transactions.isEnabled());
+
+		transactions.begin();
+		transactions.added();
+		transactions.commit();
+		transactions.rollback();
+		transactions.close("t");
+		assertTrue(state.isEmpty());
+	}
+
+	private static Connection connection(final Map<String, Object> state) {
+		return (Connection) Proxy.newProxyInstance(TransactionsTest.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("getAutoCommit".equals(name)) {
+							return Boolean.TRUE;
+						} else if ("setAutoCommit".equals(name)) {
+							state.put("autoCommit", args[0]);
+						} else if ("commit".equals(name) || "rollback".equals(name)) {
+							Integer count = (Integer) state.get(name);
+							state.put(name, count == null ? 1 : count + 1);
+						} else {
+							throw new UnsupportedOperationException(name);
+						}
+						return null;
+					}
+				});
+	}
+}
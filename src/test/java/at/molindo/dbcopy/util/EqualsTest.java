@@ -15,12 +15,24 @@
  */
 package at.molindo.dbcopy.util;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.BitSet;
+
 import org.junit.Test;
 
+import at.molindo.dbcopy.Column;
 import at.molindo.dbcopy.util.Equals.ValueEquals;
 
 public class EqualsTest {
@@ -49,6 +61,83 @@ public class EqualsTest {
 		notEquals(e, F42_5, L42);
 	}
 
+	@Test
+	public void testFloat() throws Exception {
+		ValueEquals e = Equals.findEquals(Float.class, Double.class);
+		assertSame(ValueEquals.FLOAT, e);
+		equals(e, 0.1F, 0.1);
+		notEquals(e, 0.1F, 0.2);
+
+		// float column on source, double column on target
+		Column[] h1 = { new Column("a", Float.class) };
+		Column[] h2 = { new Column("a", Double.class) };
+		Equals equals = new Equals(h1, h2);
+		RowBatch b1 = new RowBatch(h1, 1);
+		RowBatch b2 = new RowBatch(h2, 1);
+		b1.add(row(0.1F));
+		b2.add(row(0.1));
+		assertTrue(equals.equals(b1, 0, b2, 0));
+		assertTrue(equals.changed(b1, 0, b2, 0).isEmpty());
+	}
+
+	@Test
+	public void testDecimal() {
+		ValueEquals e = Equals.findEquals(BigDecimal.class, BigDecimal.class);
+		assertSame(ValueEquals.DECIMAL, e);
+		equals(e, new BigDecimal("42.50"), new BigDecimal("42.5"));
+		notEquals(e, new BigDecimal("42.51"), new BigDecimal("42.5"));
+
+		e = Equals.findEquals(Long.class, BigInteger.class);
+		assertSame(ValueEquals.DECIMAL, e);
+		equals(e, L42, BigInteger.valueOf(42));
+		equals(e, D42_5, new BigDecimal("42.50"));
+	}
+
+	@Test
+	public void testBytes() {
+		ValueEquals e = Equals.findEquals(byte[].class, byte[].class);
+		assertSame(ValueEquals.BYTES, e);
+		equals(e, new byte[] { 1, 2 }, new byte[] { 1, 2 });
+		notEquals(e, new byte[] { 1, 2 }, new byte[] { 1 });
+	}
+
+	@Test
+	public void testTemporal() {
+		ValueEquals e = Equals.findEquals(Timestamp.class, Date.class);
+		assertSame(ValueEquals.TEMPORAL, e);
+
+		Timestamp ts = new Timestamp(-1500);
+		equals(e, ts, new Date(-1500));
+		ts.setNanos(500000001);
+		notEquals(e, ts, new Date(-1500));
+		notEquals(e, ts, null);
+	}
+
+	@Test
+	public void testNull() {
+		Column[] h = { new Column("a", Long.class), new Column("b", Long.class) };
+		Equals e = new Equals(h, h);
+		assertTrue(e.equals(new Object[] { null, 1L }, new Object[] { null, 1L }));
+		assertFalse(e.equals(new Object[] { 1L, 1L }, new Object[] { null, 1L }));
+		assertFalse(e.equals(new Object[] { null, 1L }, new Object[] { 1L, 1L }));
+	}
+
+	@Test
+	public void testChanged() throws Exception {
+		Column[] h = { new Column("a", Long.class), new Column("b", String.class), new Column("c", Double.class) };
+		Equals e = new Equals(h, h);
+		RowBatch b1 = new RowBatch(h, 2);
+		RowBatch b2 = new RowBatch(h, 2);
+		b1.add(row(1L, "foo", 1.5));
+		b2.add(row(1L, "Foo", 2.5));
+
+		BitSet expected = new BitSet();
+		expected.set(1);
+		expected.set(2);
+		assertEquals(expected, e.changed(b1, 0, b2, 0));
+		assertTrue(e.changed(b1, 0, b1, 0).isEmpty());
+	}
+
 	@Test
 	public void testDefault() {
 		ValueEquals e = Equals.findEquals(Short.class, String.class);
@@ -64,4 +153,15 @@ public class EqualsTest {
 	private static void notEquals(ValueEquals e, Object o1, Object o2) {
 		assertFalse(e.equals(o1, o2));
 	}
+
+	private static ResultSet row(final Object... values) {
+		return (ResultSet) Proxy.newProxyInstance(EqualsTest.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+				new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						return "wasNull".equals(method.getName()) ? false : values[(Integer) args[0] - 1];
+					}
+				});
+	}
 }
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Timestamp;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KeyEncoderTest {
+
+	@Test
+	public void testOrder() throws Exception {
+		NaturalRowComparator comp = new NaturalRowComparator(new int[] { 0, 1, 2 });
+		Random rnd = new Random(42);
+		String[] strings = { "", "a", "a\u0000", "a\u0000b", "ab", "b", "\u00e4", "\uffff", "\ud800\udc00" };
+
+		for (int i = 0; i < 10000; i++) {
+			Object[] r1 = { rnd.nextInt(5) - 2L, strings[rnd.nextInt(strings.length)], rnd.nextDouble() - 0.5 };
+			Object[] r2 = { rnd.nextInt(5) - 2L, strings[rnd.nextInt(strings.length)], (double) r1[2] };
+
+			int expected = Integer.signum(comp.compare(r1, r2));
+			int actual = Integer.signum(KeyEncoder.compare(KeyEncoder.encode(r1), KeyEncoder.encode(r2)));
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void testSignedValues() throws Exception {
+		long[] longs = { Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE };
+		for (int i = 1; i < longs.length; i++) {
+			assertEquals(-1, Integer.signum(KeyEncoder.compare(KeyEncoder.encode(longs[i - 1]),
+					KeyEncoder.encode(longs[i]))));
+		}
+		double[] doubles = { Double.NEGATIVE_INFINITY, -1.5, -0.0, 0.0, Double.MIN_VALUE, 2.5, Double.NaN };
+		for (int i = 1; i < doubles.length; i++) {
+			assertEquals(-1, Integer.signum(KeyEncoder.compare(KeyEncoder.encode(doubles[i - 1]),
+					KeyEncoder.encode(doubles[i]))));
+		}
+		// Integer and Long encoded identically
+		assertArrayEquals(KeyEncoder.encode(42L), KeyEncoder.encode(42));
+	}
+
+	@Test
+	public void testDecode() throws Exception {
+		Timestamp ts = new Timestamp(-1500);
+		ts.setNanos(123456789);
+		Object[] key = { -42L, -0.5, "a\u0000b", new byte[] { 0, -1, 1 }, ts, Boolean.TRUE, null,
+				new java.sql.Date(86400000L) };
+
+		assertArrayEquals(key, KeyEncoder.decode(KeyEncoder.encode(key)));
+	}
+}
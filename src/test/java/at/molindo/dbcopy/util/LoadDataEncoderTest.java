@@ -0,0 +1,80 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import at.molindo.dbcopy.Column;
+
+public class LoadDataEncoderTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final List<Column> COLUMNS = Arrays.asList(new Column("id", null, "bigint", null), new Column(
+			"name", "utf8mb4_general_ci", "varchar", null), new Column("latin", "latin1_swedish_ci", "text", null),
+			new Column("data", null, "blob", null), new Column("price", null, "decimal", null), new Column("created",
+					null, "datetime", null));
+
+	@Test
+	public void testEncode() throws Exception {
+		LoadDataEncoder encoder = new LoadDataEncoder(COLUMNS);
+
+		encoder.add(new Object[] { -42L, "a\tb\nc\\d\u0000\u00e4\ud83d\ude00", "\u00e4\u20ac",
+				new byte[] { 1, 0, 9, 10, 92, (byte) 0xff }, new BigDecimal("1E+3"),
+				Timestamp.valueOf("2014-02-10 13:17:08.5") });
+		encoder.add(new Object[] { Long.MIN_VALUE, "", null, null, null, null });
+		assertEquals(2, encoder.getRows());
+
+		byte[] expected = concat("-42\ta\\tb\\nc\\\\d\\0\u00e4\ud83d\ude00\t".getBytes(UTF8), new byte[] { (byte) 0xe4,
+				(byte) 0x80, '\t', 1, '\\', '0', '\\', 't', '\\', 'n', '\\', '\\', (byte) 0xff },
+				"\t1000\t2014-02-10 13:17:08.5\n-9223372036854775808\t\t\\N\t\\N\t\\N\t\\N\n".getBytes(UTF8));
+		assertArrayEquals(expected, encoder.toByteArray());
+
+		encoder.reset();
+		assertEquals(0, encoder.length());
+		encoder.add(new Object[] { 0L, null, null, null, null, null });
+		assertArrayEquals("0\t\\N\t\\N\t\\N\t\\N\t\\N\n".getBytes(UTF8), encoder.toByteArray());
+	}
+
+	@Test
+	public void testSupported() throws Exception {
+		assertTrue(LoadDataEncoder.isSupported(COLUMNS));
+		assertFalse(LoadDataEncoder.isSupported(Arrays.asList(new Column("flag", null, "bit", null))));
+		assertFalse(LoadDataEncoder.isSupported(Arrays.asList(new Column("name", "sjis_japanese_ci", "varchar",
+				null))));
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		byte[] result = new byte[0];
+		for (byte[] array : arrays) {
+			int pos = result.length;
+			result = Arrays.copyOf(result, pos + array.length);
+			System.arraycopy(array, 0, result, pos, array.length);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import at.molindo.dbcopy.KeyRange;
+
+public class MerkleTreeTest {
+
+	private static List<KeyRange> leaves() {
+		KeyRange[] first = KeyRange.ALL.split(new Object[] { 10L, "a" });
+		KeyRange[] second = first[1].split(new Object[] { 20L, "b" });
+		return Arrays.asList(first[0], second[0], second[1]);
+	}
+
+	@Test
+	public void testCreateOpen() throws IOException {
+		File file = File.createTempFile("merkle", ".tree");
+		try {
+			MerkleTree tree = MerkleTree.create(file, leaves(), new long[] { 1, 2, 3 });
+			long root = tree.getRootHash();
+			tree.close();
+
+			tree = MerkleTree.open(file);
+			try {
+				assertEquals(root, tree.getRootHash());
+				assertEquals(3, tree.getLeaves().size());
+				assertNull(tree.getLeaves().get(0).getFrom());
+				assertArrayEquals(new Object[] { 10L, "a" }, tree.getLeaves().get(0).getTo());
+				assertArrayEquals(new Object[] { 20L, "b" }, tree.getLeaves().get(2).getFrom());
+				assertNull(tree.getLeaves().get(2).getTo());
+			} finally {
+				tree.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testDiff() throws IOException {
+		File f1 = File.createTempFile("merkle", ".tree");
+		File f2 = File.createTempFile("merkle", ".tree");
+		try {
+			MerkleTree t1 = MerkleTree.create(f1, leaves(), new long[] { 1, 2, 3 });
+			MerkleTree t2 = MerkleTree.create(f2, leaves(), new long[] { 1, 2, 4 });
+			try {
+				assertEquals(Arrays.asList(2), t1.diff(t2));
+				assertEquals(Arrays.asList(), t1.diff(t1));
+			} finally {
+				t1.close();
+				t2.close();
+			}
+		} finally {
+			f1.delete();
+			f2.delete();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import at.molindo.dbcopy.Column;
+
+public class RowBatchTest {
+
+	private static final Column[] COLUMNS = { new Column("id", Long.class), new Column("i", Integer.class),
+			new Column("f", Float.class), new Column("s", String.class) };
+
+	/**
+	 * @return a {@link ResultSet} positioned on a row with given values
+	 */
+	private static ResultSet row(final Object... values) {
+		return (ResultSet) Proxy.newProxyInstance(RowBatchTest.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+
+					private Object _last;
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("wasNull".equals(method.getName())) {
+							return _last == null;
+						}
+						_last = values[(Integer) args[0] - 1];
+						if ("getLong".equals(method.getName())) {
+							return _last == null ? 0L : ((Number) _last).longValue();
+						} else if ("getFloat".equals(method.getName())) {
+							return _last == null ? 0f : ((Number) _last).floatValue();
+						} else {
+							return _last;
+						}
+					}
+				});
+	}
+
+	private static RowBatch batch(Object[]... rows) throws Exception {
+		RowBatch batch = new RowBatch(COLUMNS, rows.length);
+		for (Object[] row : rows) {
+			batch.add(row(row));
+		}
+		return batch;
+	}
+
+	@Test
+	public void testGetRow() throws Exception {
+		Object[] row = { 1L, null, 0.1f, "a" };
+		RowBatch batch = batch(row, new Object[] { 2L, 3, null, null });
+
+		assertEquals(2, batch.size());
+		assertArrayEquals(row, batch.getRow(0));
+		assertArrayEquals(new Object[] { 2L, 3, null, null }, batch.getRow(1));
+	}
+
+	@Test
+	public void testRawStrings() throws Exception {
+		Column[] columns = { new Column("id", Long.class), new Column("s", null, null, String.class, "UTF-8") };
+		RowBatch b1 = new RowBatch(columns, 2);
+		b1.add(row(1L, "\u00e4".getBytes("UTF-8")));
+		b1.add(row(2L, null));
+		RowBatch b2 = new RowBatch(columns, 1);
+		b2.add(row(1L, "\u00e4".getBytes("UTF-8")));
+
+		assertArrayEquals(new Object[] { 1L, "\u00e4" }, b1.getRow(0));
+		assertArrayEquals(new Object[] { 2L, null }, b1.getRow(1));
+
+		Equals e = new Equals(columns, columns);
+		assertEquals(true, e.equals(b1, 0, b2, 0));
+		assertEquals(false, e.equals(b1, 1, b2, 0));
+
+		// raw and decoded strings
+		Column[] decoded = { new Column("id", Long.class), new Column("s", String.class) };
+		RowBatch b3 = new RowBatch(decoded, 1);
+		b3.add(row(1L, "\u00e4"));
+		e = new Equals(columns, decoded);
+		assertEquals(true, e.equals(b1, 0, b3, 0));
+		assertEquals(false, e.equals(b1, 1, b3, 0));
+	}
+
+	@Test
+	public void testCompareAndEquals() throws Exception {
+		RowBatch b1 = batch(new Object[] { 1L, 2, 0.5f, "a" }, new Object[] { 5L, null, null, "b" });
+		RowBatch b2 = batch(new Object[] { 5L, null, null, "b" }, new Object[] { 1L, 2, 0.5f, "c" });
+
+		NaturalRowComparator comp = new NaturalRowComparator(new int[] { 0 });
+		assertEquals(-1, comp.compare(b1, 0, b2, 0));
+		assertEquals(0, comp.compare(b1, 1, b2, 0));
+		assertEquals(0, comp.compare(b1, 0, b2, 1));
+
+		Equals e = new Equals(COLUMNS, COLUMNS);
+		assertEquals(true, e.equals(b1, 1, b2, 0));
+		assertEquals(false, e.equals(b1, 0, b2, 1));
+	}
+
+	@Test
+	public void testNullAndZero() throws Exception {
+		RowBatch b1 = batch(new Object[] { 1L, 0, 0f, "a" });
+		RowBatch b2 = batch(new Object[] { 1L, null, 0f, "a" }, new Object[] { 1L, 0, null, "a" });
+
+		Equals e = new Equals(COLUMNS, COLUMNS);
+		assertEquals(true, e.equals(b1, 0, b1, 0));
+		assertEquals(false, e.equals(b1, 0, b2, 0));
+		assertEquals(false, e.equals(b1, 0, b2, 1));
+	}
+
+	@Test
+	public void testStoredRows() throws Exception {
+		Object[] row = { 1L, null, 0.1f, "a" };
+		RowBatch b1 = batch(row, new Object[] { 5L, null, null, "b" });
+		RowBatch b2 = batch(new Object[] { 1L, null, 0.1f, "a" });
+		assertArrayEquals(row, b1.getRow(0));
+		// stored rows aren't copied
+		assertSame(b1.getRow(0), b1.getRow(0));
+		assertEquals(true, b1.isNull(1, 0));
+		assertEquals(0.1f, b1.getObject(2, 0));
+
+		NaturalRowComparator comp = new NaturalRowComparator(new int[] { 0 });
+		assertEquals(-1, comp.compare(b1, 0, b1, 1));
+		assertEquals(0, comp.compare(b1, 0, b2, 0));
+
+		// ignoring columns beyond the header
+		Equals e = new Equals(Arrays.copyOf(COLUMNS, 3), Arrays.copyOf(COLUMNS, 3));
+		assertEquals(true, e.equals(b1, 0, b2, 0));
+		assertEquals(false, e.equals(b1, 1, b2, 0));
+	}
+}
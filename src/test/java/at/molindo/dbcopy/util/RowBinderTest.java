@@ -0,0 +1,57 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import at.molindo.dbcopy.Column;
+
+public class RowBinderTest {
+
+	@Test
+	public void testBind() throws Exception {
+		final List<String> calls = new ArrayList<String>();
+		PreparedStatement ps = (PreparedStatement) Proxy.newProxyInstance(RowBinderTest.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						calls.add(method.getName() + args[0] + "=" + args[1]);
+						return null;
+					}
+				});
+
+		RowBinder binder = new RowBinder(Arrays.asList(new Column("a", null, "bigint", null), new Column("b", null,
+				"varchar", null), new Column("c", null, "int", null), new Column("d", null, "enum", null)));
+
+		binder.bind(ps, new Object[] { 1L, "x", null, "y" }, 4);
+		binder.bind(ps, 1, 0, BigInteger.ONE);
+
+		assertEquals(Arrays.asList("setLong5=1", "setString6=x", "setObject7=null", "setObject8=y", "setObject1=1"),
+				calls);
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.dbcopy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SpscBatchQueueTest {
+
+	private static final Integer END = Integer.valueOf(-1);
+
+	@Test
+	public void testTransfer() throws Exception {
+		for (WaitStrategy wait : WaitStrategy.values()) {
+			final SpscBatchQueue<Integer> queue = new SpscBatchQueue<Integer>(END, 7, 3, wait);
+
+			Thread producer = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 10000; i++) {
+							queue.put(i);
+						}
+						queue.put(END);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			producer.start();
+
+			for (int i = 0; i < 10000; i++) {
+				assertEquals(i, queue.take().intValue());
+			}
+			assertSame(END, queue.take());
+			producer.join();
+		}
+	}
+
+	@Test
+	public void testFlush() throws Exception {
+		SpscBatchQueue<Integer> queue = new SpscBatchQueue<Integer>(END, 256, 1, WaitStrategy.SPIN);
+
+		queue.put(1);
+		queue.flush();
+		assertEquals(1, queue.take().intValue());
+
+		// end in empty batch
+		queue.put(END);
+		assertSame(END, queue.take());
+	}
+
+	@Test
+	public void testAvailable() throws Exception {
+		SpscBatchQueue<Integer> queue = new SpscBatchQueue<Integer>(END, 2, 2, WaitStrategy.SPIN);
+		assertFalse(queue.isAvailable());
+
+		// not yet published
+		queue.put(1);
+		assertFalse(queue.isAvailable());
+
+		queue.put(2);
+		assertTrue(queue.isAvailable());
+		assertEquals(1, queue.take().intValue());
+		assertTrue(queue.isAvailable());
+		assertEquals(2, queue.take().intValue());
+		assertFalse(queue.isAvailable());
+
+		queue.put(END);
+		assertTrue(queue.isAvailable());
+		assertSame(END, queue.take());
+	}
+}